@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness. Runs an operation in batches until warmed up,
+ * then times a number of rounds and prints median and p99 per operation.
+ * 
+ * Rounds and warmup may be changed by system properties bench.rounds and
+ * bench.warmup (ms).
+ * 
+ * @author flx
+ */
+public final class Bench {
+	/**
+	 * Operation to measure.
+	 */
+	public interface Op {
+		/**
+		 * @param i
+		 *            invocation counter
+		 * @return some result, kept alive to avoid dead code elimination
+		 * @throws Exception
+		 *             Exception
+		 */
+		Object run(final int i) throws Exception;
+	}
+
+	/** Number of timed rounds. */
+	private static final int ROUNDS = Integer.getInteger("bench.rounds", 20);
+	/** Warmup in ns. */
+	private static final long WARMUP = Long.getLong("bench.warmup", 500L)
+			* 1000000L;
+	/** Target duration of a single round in ns. */
+	private static final long ROUND = 20000000L;
+	/** Percentile reported besides median. */
+	private static final double P99 = 0.99;
+
+	/** Sink for results. */
+	private static volatile Object sink;
+
+	/**
+	 * No instances.
+	 */
+	private Bench() {
+		// nothing to do
+	}
+
+	/**
+	 * Print table header.
+	 */
+	public static void header() {
+		System.out.println(String.format(Locale.US, "%-40s %12s %12s",
+				"benchmark", "median ns", "p99 ns"));
+	}
+
+	/**
+	 * Measure throughput: ns per operation, taken per round.
+	 * 
+	 * @param name
+	 *            name
+	 * @param op
+	 *            {@link Op}
+	 * @return median ns per operation
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static double run(final String name, final Op op)
+			throws Exception {
+		int batch = 1;
+		long end = System.nanoTime() + WARMUP;
+		while (System.nanoTime() < end) {
+			if (time(op, batch) < ROUND / 2 && batch < Integer.MAX_VALUE / 2) {
+				batch *= 2;
+			}
+		}
+		double[] r = new double[ROUNDS];
+		for (int j = 0; j < ROUNDS; j++) {
+			r[j] = (double) time(op, batch) / batch;
+		}
+		return report(name, r);
+	}
+
+	/**
+	 * Measure latency: every invocation is timed on its own.
+	 * 
+	 * @param name
+	 *            name
+	 * @param op
+	 *            {@link Op}
+	 * @param n
+	 *            number of timed invocations
+	 * @return median ns per operation
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static double sample(final String name, final Op op, final int n)
+			throws Exception {
+		long end = System.nanoTime() + WARMUP;
+		int i = 0;
+		while (System.nanoTime() < end) {
+			sink = op.run(i++);
+		}
+		double[] r = new double[n];
+		for (int j = 0; j < n; j++) {
+			r[j] = time(op, 1);
+		}
+		return report(name, r);
+	}
+
+	/**
+	 * @param op
+	 *            {@link Op}
+	 * @param batch
+	 *            number of invocations
+	 * @return ns spent
+	 * @throws Exception
+	 *             Exception
+	 */
+	private static long time(final Op op, final int batch) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < batch; i++) {
+			sink = op.run(i);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Print a result line.
+	 * 
+	 * @param name
+	 *            name
+	 * @param r
+	 *            ns per operation
+	 * @return median
+	 */
+	private static double report(final String name, final double[] r) {
+		Arrays.sort(r);
+		double median = r[r.length / 2];
+		double p99 = r[Math.min(r.length - 1, (int) (r.length * P99))];
+		System.out.println(String.format(Locale.US, "%-40s %12.1f %12.1f",
+				name, median, p99));
+		return median;
+	}
+
+	/**
+	 * Print a measured value which is not a time.
+	 * 
+	 * @param name
+	 *            name
+	 * @param value
+	 *            value
+	 * @param unit
+	 *            unit
+	 */
+	public static void value(final String name, final long value,
+			final String unit) {
+		System.out.println(String.format(Locale.US, "%-40s %12d %s", name,
+				value, unit));
+	}
+
+	/**
+	 * @return used heap after garbage collection
+	 */
+	public static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// take the lowest of a few runs, gc() is a hint only
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.ub0r.android.nfcprofile.Bench.Op;
+
+/**
+ * Benchmarks for the backup entity encoding done by {@link PrefsCodec},
+ * compared to the {@link ObjectOutputStream} format written by older
+ * versions.
+ * 
+ * @author flx
+ */
+public final class CodecBenchmarks {
+	/**
+	 * No instances.
+	 */
+	private CodecBenchmarks() {
+		// nothing to do
+	}
+
+	/**
+	 * @return prefs of a profile touching all settings
+	 */
+	static Map<String, Object> profilePrefs() {
+		LinkedHashMap<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("name", "Office");
+		m.put("AirplaneModeSetting", "deactivate");
+		m.put("ScreenTimeoutSetting", "60");
+		m.put("ScreenBrightnessSetting", "128");
+		m.put("VibratorSetting_0", "activate");
+		m.put("VibratorSetting_1", "deactivate");
+		m.put("RingModeSetting", "activate");
+		return m;
+	}
+
+	/**
+	 * @return default prefs after some taps
+	 */
+	static Map<String, Object> defaultPrefs() {
+		LinkedHashMap<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("current_profile", "0123456789abcdef0123456789abcdef");
+		m.put("RESET_ScreenTimeoutSetting", 120000);
+		m.put("RESET_ScreenBrightnessSetting_value", 200);
+		m.put("RESET_RingModeSetting", 2);
+		m.put("stack_profiles", true);
+		m.put("tap_window", "1500");
+		return m;
+	}
+
+	/**
+	 * @param args
+	 *            ignored
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		Bench.header();
+		run("profile", profilePrefs());
+		run("default", defaultPrefs());
+	}
+
+	/**
+	 * Run benchmarks for a single map.
+	 * 
+	 * @param name
+	 *            name of the map
+	 * @param map
+	 *            map
+	 * @throws Exception
+	 *             Exception
+	 */
+	private static void run(final String name, final Map<String, Object> map)
+			throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrefsCodec.encode(map, out);
+		final byte[] b = out.toByteArray();
+		Bench.value("PrefsCodec size, " + name, b.length, "bytes");
+		Bench.run("PrefsCodec.encode, " + name, new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				out.reset();
+				PrefsCodec.encode(map, out);
+				return out;
+			}
+		});
+		Bench.run("PrefsCodec.decode, " + name, new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				return PrefsCodec.decode(new ByteArrayInputStream(b), b.length);
+			}
+		});
+
+		final byte[] legacy = encodeLegacy(map);
+		Bench.value("ObjectOutputStream size, " + name, legacy.length,
+				"bytes");
+		Bench.run("ObjectOutputStream encode, " + name, new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				return encodeLegacy(map);
+			}
+		});
+		Bench.run("ObjectInputStream decode, " + name, new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				return decodeLegacy(legacy);
+			}
+		});
+	}
+
+	/**
+	 * Encode a map the way older versions did.
+	 * 
+	 * @param map
+	 *            map
+	 * @return encoded map
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static byte[] encodeLegacy(final Map<String, Object> map)
+			throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(b);
+		for (Map.Entry<String, Object> e : map.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeObject(e.getValue());
+		}
+		out.close();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Decode a map written by encodeLegacy().
+	 * 
+	 * @param b
+	 *            encoded map
+	 * @return map
+	 * @throws Exception
+	 *             Exception
+	 */
+	private static Map<String, Object> decodeLegacy(final byte[] b)
+			throws Exception {
+		ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(b));
+		HashMap<String, Object> ret = new HashMap<String, Object>();
+		while (true) {
+			String k;
+			try {
+				k = in.readUTF();
+			} catch (EOFException e) {
+				return ret;
+			}
+			ret.put(k, in.readObject());
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.ub0r.android.nfcprofile.Bench;
+import de.ub0r.android.nfcprofile.Bench.Op;
+import de.ub0r.android.nfcprofile.PrefsCodec;
+
+/**
+ * Benchmarks for the tap path: loading, setting and resetting a
+ * {@link Profile}, each {@link Setting}, the stored key lists and the
+ * {@link ApplyEngine}.
+ * 
+ * @author flx
+ */
+public final class DataBenchmarks {
+	/** Number of keys in stored key lists. */
+	private static final int KEYS = 10;
+	/** Timed invocations of the {@link ApplyEngine}. */
+	private static final int APPLIES = 200;
+	/** Port latency in ns used for a slow platform. */
+	private static final long SLOW_PORT = 1000000L;
+	/** Timed invocations of the {@link ApplyEngine} on a slow platform. */
+	private static final int SLOW_APPLIES = 30;
+	/** Timed taps. */
+	private static final int TAPS = 1000;
+	/** Number of restored profiles. */
+	private static final int RESTORED = 1000;
+	/** Timed restores. */
+	private static final int RESTORES = 10;
+	/** Decoder threads, like in NfcProfileBackupAgent. */
+	private static final int RESTORE_THREADS = 4;
+
+	/**
+	 * No instances.
+	 */
+	private DataBenchmarks() {
+		// nothing to do
+	}
+
+	/**
+	 * @param args
+	 *            ignored
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final MemoryPlatform platform = Fixtures.newPlatform();
+		final KeyValueStore p = platform.getPreferences("bench");
+		Fixtures.putProfile(p, "bench");
+		final KeyValueStore saved = platform.getPreferences(null);
+		final Profile profile = new Profile(p);
+
+		Bench.header();
+		Bench.run("Profile.load", new Op() {
+			@Override
+			public Object run(final int i) {
+				profile.load(p);
+				return profile;
+			}
+		});
+		Bench.run("Profile.set", new Op() {
+			@Override
+			public Object run(final int i) {
+				profile.set(platform, saved);
+				return profile;
+			}
+		});
+		Bench.run("Profile.reset", new Op() {
+			@Override
+			public Object run(final int i) {
+				profile.reset(platform, saved);
+				return profile;
+			}
+		});
+		for (final Setting s : profile.getSettings()) {
+			Bench.run(s.getName() + ".set", new Op() {
+				@Override
+				public Object run(final int i) {
+					s.set(platform, saved);
+					return s;
+				}
+			});
+			Bench.run(s.getName() + ".reset", new Op() {
+				@Override
+				public Object run(final int i) {
+					s.reset(platform, saved);
+					return s;
+				}
+			});
+		}
+
+		final ArrayList<String> keys = new ArrayList<String>(KEYS);
+		for (int i = 0; i < KEYS; i++) {
+			keys.add(String.format(Locale.US, "%032x", i));
+		}
+		final String joined = Profile.joinKeys(keys);
+		Bench.run("Profile.joinKeys", new Op() {
+			@Override
+			public Object run(final int i) {
+				return Profile.joinKeys(keys);
+			}
+		});
+		Bench.run("Profile.parseKeys", new Op() {
+			@Override
+			public Object run(final int i) {
+				return Profile.parseKeys(joined);
+			}
+		});
+
+		final ProfilePlan plan = ProfilePlan.compile(profile);
+		final byte[] b = plan.toByteArray();
+		Bench.run("ProfilePlan.compile", new Op() {
+			@Override
+			public Object run(final int i) {
+				return ProfilePlan.compile(profile);
+			}
+		});
+		Bench.run("ProfilePlan.toByteArray", new Op() {
+			@Override
+			public Object run(final int i) {
+				return plan.toByteArray();
+			}
+		});
+		Bench.run("ProfilePlan.fromBytes", new Op() {
+			@Override
+			public Object run(final int i) {
+				return ProfilePlan.fromBytes(b, 0, b.length);
+			}
+		});
+		Bench.run("new Profile(ProfilePlan)", new Op() {
+			@Override
+			public Object run(final int i) {
+				return new Profile(plan);
+			}
+		});
+
+		Op apply = new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				Future<?> f = ApplyEngine.apply(platform, profile,
+						i % 2 == 1, saved, null, null);
+				f.get();
+				return f;
+			}
+		};
+		Bench.sample("ApplyEngine.apply", apply, APPLIES);
+		platform.setLatency(SLOW_PORT);
+		Bench.sample("ApplyEngine.apply, 1ms ports", apply, SLOW_APPLIES);
+		platform.setLatency(0L);
+
+		// what TapService does after the intent reached its thread
+		final String tapKey = "7a9";
+		Fixtures.putProfile(platform.getPreferences(tapKey), "tap");
+		Profile.setName(platform, tapKey, "tap");
+		final ProfileStack stack = ProfileStack.getInstance(platform);
+		Bench.sample("tap: validate, load, apply", new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				TapTracer.Tap tap = TapTracer.startTap();
+				if (!Profile.isValidKey(platform, tapKey)) {
+					throw new IllegalStateException("invalid key");
+				}
+				Profile prof = ProfileCache.get(platform, tapKey);
+				KeyValueStore saved = platform.getPreferences(null);
+				int index = stack.indexOf(tapKey);
+				Future<?> f;
+				if (index < 0) {
+					f = stack.push(platform, tapKey, prof, saved, null, tap);
+				} else {
+					// second tap resets
+					f = stack.remove(platform, index, saved, null, tap);
+				}
+				f.get();
+				TapTracer.finish(tap);
+				return f;
+			}
+		}, TAPS);
+
+		final ArrayList<byte[]> entities = new ArrayList<byte[]>(RESTORED);
+		for (int i = 0; i < RESTORED; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			PrefsCodec.encode(p.getAll(), out);
+			entities.add(out.toByteArray());
+		}
+		Bench.sample("restore " + RESTORED + " profiles", new Op() {
+			@Override
+			public Object run(final int i) throws Exception {
+				return restore(platform, entities, i);
+			}
+		}, RESTORES);
+
+		System.exit(0);
+	}
+
+	/**
+	 * Restore profiles the way NfcProfileBackupAgent.onRestore() does:
+	 * decode on a pool, compile and save plans, then register all names at
+	 * once.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param entities
+	 *            encoded profiles
+	 * @param run
+	 *            number of this run, makes keys unique
+	 * @return restored names by key
+	 * @throws Exception
+	 *             Exception
+	 */
+	private static Map<String, String> restore(final Platform platform,
+			final ArrayList<byte[]> entities, final int run) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(RESTORE_THREADS);
+		ArrayList<String[]> profiles = new ArrayList<String[]>(
+				entities.size());
+		for (int i = 0; i < entities.size(); i++) {
+			final byte[] b = entities.get(i);
+			final String k = String.format(Locale.US, "%016x%016x", run, i);
+			final String[] profile = new String[] { k, null };
+			profiles.add(profile);
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						KeyValueStore p = platform.getPreferences(k);
+						for (Map.Entry<String, Object> e : PrefsCodec.decode(
+								new ByteArrayInputStream(b), b.length)
+								.entrySet()) {
+							p.putString(e.getKey(), (String) e.getValue());
+						}
+						p.apply();
+						profile[1] = p.getString("name", null);
+						ProfilePlan.compile(p).save(platform, k);
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+		LinkedHashMap<String, String> names = new LinkedHashMap<String, String>(
+				profiles.size());
+		for (String[] profile : profiles) {
+			names.put(profile[0], profile[1]);
+		}
+		ProfileRegistry.getInstance(platform).putAll(names);
+		return names;
+	}
+}
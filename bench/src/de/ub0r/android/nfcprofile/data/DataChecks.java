@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import de.ub0r.android.nfcprofile.Bench;
+import de.ub0r.android.nfcprofile.PrefsCodec;
+
+/**
+ * Checks for the data package running on {@link MemoryPlatform}. Exits with
+ * status 1 if any check fails.
+ * 
+ * @author flx
+ */
+public final class DataChecks {
+	/** Number of bogus keys checked. */
+	private static final int BOGUS_KEYS = 100000;
+	/** Allowed heap growth while checking bogus keys. */
+	private static final long BOGUS_HEAP = 1L << 20;
+
+	/** Port latency exceeding the audio lane's deadlines in ns. */
+	private static final long MISSED = 3500000000L;
+
+	/** Number of failed checks. */
+	private static int failed = 0;
+
+	/**
+	 * No instances.
+	 */
+	private DataChecks() {
+		// nothing to do
+	}
+
+	/**
+	 * @param args
+	 *            ignored
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		MemoryPlatform platform = Fixtures.newPlatform();
+		checkSingleWrite(platform);
+		checkCodec();
+		checkUnnamed(platform);
+		checkBogusKeys(platform);
+		checkRemove(platform);
+		checkEdit(platform);
+		checkMissedDeadline(platform);
+		checkTagKey();
+		checkTagProfile(platform);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Print and count a check's result.
+	 * 
+	 * @param name
+	 *            check's name
+	 * @param ok
+	 *            result
+	 */
+	private static void check(final String name, final boolean ok) {
+		System.out.println((ok ? "ok   " : "FAIL ") + name);
+		if (!ok) {
+			++failed;
+		}
+	}
+
+	/**
+	 * Setting, resetting and switching a {@link Profile} writes all saved
+	 * state in a single transaction.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 * @throws Exception
+	 *             Exception
+	 */
+	private static void checkSingleWrite(final MemoryPlatform platform)
+			throws Exception {
+		final String key = "single";
+		Fixtures.putProfile(platform.getPreferences(key), key);
+		Profile profile = new Profile(platform.getPreferences(key));
+
+		int before = platform.getApplies();
+		ApplyEngine.apply(platform, profile, false,
+				platform.getPreferences(null), null, null).get();
+		check("set writes once", platform.getApplies() - before == 1);
+
+		before = platform.getApplies();
+		ApplyEngine.apply(platform, profile, true,
+				platform.getPreferences(null), null, null).get();
+		check("reset writes at most once",
+				platform.getApplies() - before <= 1);
+
+		ProfileStack stack = ProfileStack.getInstance(platform);
+		before = platform.getApplies();
+		stack.push(platform, key, profile, platform.getPreferences(null),
+				null, null).get();
+		check("push writes once", platform.getApplies() - before == 1);
+
+		before = platform.getApplies();
+		stack.remove(platform, stack.indexOf(key),
+				platform.getPreferences(null), null, null).get();
+		check("pop writes once", platform.getApplies() - before == 1);
+	}
+
+	/**
+	 * {@link PrefsCodec} keeps all types and rejects lengths exceeding its
+	 * input.
+	 * 
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static void checkCodec() throws IOException {
+		LinkedHashMap<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("s", "\u00e4");
+		m.put("i", -1);
+		m.put("l", Long.MAX_VALUE);
+		m.put("f", 0.5f);
+		m.put("b", true);
+		HashSet<String> set = new HashSet<String>();
+		set.add("x");
+		m.put("set", set);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrefsCodec.encode(m, out);
+		byte[] b = out.toByteArray();
+		Map<String, Object> d = PrefsCodec.decode(
+				new ByteArrayInputStream(b), b.length);
+		check("codec round trip", m.equals(d));
+
+		// string tag, key claiming 2^31 - 1 bytes
+		byte[] bad = new byte[] { PrefsCodec.VERSION, 1, -1, -1, -1, -1, 7 };
+		boolean rejected = false;
+		try {
+			PrefsCodec.decode(new ByteArrayInputStream(bad), bad.length);
+		} catch (IOException e) {
+			rejected = true;
+		}
+		check("codec rejects oversized length", rejected);
+	}
+
+	/**
+	 * {@link Profile}s without name are not registered and do not block
+	 * importing them from a tag.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 */
+	private static void checkUnnamed(final MemoryPlatform platform) {
+		ProfileRegistry r = ProfileRegistry.getInstance(platform);
+		int size = r.size();
+		String key = Profile.genKey();
+		Profile.addKey(platform, key);
+		Profile.setName(platform, key, null);
+		check("unnamed profile is not registered", r.size() == size
+				&& !r.contains(key));
+
+		KeyValueStore p = platform.getPreferences("import");
+		Fixtures.putProfile(p, "import");
+		check("unnamed profile can be imported", Profile.importKey(platform,
+				key, "imported", ProfilePlan.compile(p))
+				&& Profile.isValidKey(platform, key));
+	}
+
+	/**
+	 * Unknown keys from tags or links are rejected without opening a store
+	 * and without growing the heap.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 */
+	private static void checkBogusKeys(final MemoryPlatform platform) {
+		ProfileRegistry r = ProfileRegistry.getInstance(platform);
+		int size = r.size();
+		int stores = platform.getStoreCount();
+		Random rnd = new Random(0);
+		int accepted = 0;
+		// warm up before measuring the heap
+		Profile.isValidKey(platform, "0");
+		long heap = Bench.usedHeap();
+		for (int i = 0; i < BOGUS_KEYS; i++) {
+			String k = String.format(Locale.US, "%016x%016x", rnd.nextLong(),
+					rnd.nextLong());
+			if (Profile.isValidKey(platform, k) || ProfileCache.contains(k)) {
+				++accepted;
+			}
+			if (Profile.isWellFormedKey("../" + k)) {
+				++accepted;
+			}
+		}
+		long growth = Bench.usedHeap() - heap;
+		check("bogus keys rejected", accepted == 0);
+		check("bogus keys open no stores", platform.getStoreCount() == stores
+				&& r.size() == size);
+		check("bogus keys keep heap flat (" + growth / 1024 + "kB)",
+				growth < BOGUS_HEAP);
+	}
+
+	/**
+	 * A {@link Setting} missing its deadline does not write its saved state,
+	 * not even after the engine gave up on it.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 * @throws Exception
+	 *             Exception
+	 */
+	private static void checkMissedDeadline(final MemoryPlatform platform)
+			throws Exception {
+		KeyValueStore p = platform.getPreferences("deadline");
+		p.putString("RingModeSetting", Setting.ACTIVATE);
+		p.apply();
+		Profile profile = new Profile(p);
+		String key = "RESET_RingModeSetting";
+		KeyValueStore saved = platform.getPreferences(null);
+		saved.remove(key);
+		saved.apply();
+
+		ApplyEngine.apply(platform, profile, false, saved, null, null).get();
+		check("in time setting saves state", saved.getInt(key, -1) >= 0);
+		saved.remove(key);
+		saved.apply();
+
+		platform.setLatency(MISSED);
+		ApplyEngine.apply(platform, profile, false, saved, null, null).get();
+		// let the late setting finish, then write again
+		Thread.sleep(MISSED / 1000000L);
+		platform.setLatency(0L);
+		saved.apply();
+		check("late setting saves no state", saved.getInt(key, -1) < 0);
+	}
+
+	/**
+	 * A removed {@link Profile} is gone from registry and cache.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 */
+	private static void checkRemove(final MemoryPlatform platform) {
+		String key = "7e57";
+		Fixtures.putProfile(platform.getPreferences(key), "remove");
+		Profile.setName(platform, key, "remove");
+		ProfileCache.get(platform, key);
+		check("cached before remove", ProfileCache.contains(key));
+		Profile.removeKey(platform, key);
+		check("removed profile is not cached", !ProfileCache.contains(key)
+				&& !Profile.isValidKey(platform, key));
+	}
+
+	/**
+	 * A tap right after editing a {@link Profile} applies the new plan,
+	 * even while it is still waiting to be saved.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 * @throws InterruptedException
+	 *             InterruptedException
+	 */
+	private static void checkEdit(final MemoryPlatform platform)
+			throws InterruptedException {
+		String key = "ed17";
+		KeyValueStore p = platform.getPreferences(key);
+		Fixtures.putProfile(p, "edit");
+		ProfilePlan.compile(p).save(platform, key);
+		ProfileCache.get(platform, key);
+
+		// hold the plan thread, the save stays pending
+		final CountDownLatch hold = new CountDownLatch(1);
+		ProfilePlan.enqueue(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					hold.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		p.putString(ScreenTimeoutSetting.class.getSimpleName(), "120");
+		p.apply();
+		ProfilePlan plan = ProfilePlan.compile(p);
+		plan.saveInBackground(platform, key);
+		boolean fresh = Arrays.equals(plan.toByteArray(), ProfilePlan
+				.compile(ProfileCache.get(platform, key)).toByteArray());
+		hold.countDown();
+
+		final CountDownLatch saved = new CountDownLatch(1);
+		ProfilePlan.enqueue(new Runnable() {
+			@Override
+			public void run() {
+				saved.countDown();
+			}
+		});
+		saved.await();
+		check("edited profile is applied before it is saved", fresh);
+		check("edited profile is saved", Arrays.equals(plan.toByteArray(),
+				ProfilePlan.load(platform, key).toByteArray()));
+	}
+
+	/**
+	 * {@link TagKey} round trips keys in both formats and rejects malformed
+	 * and oversized URIs.
+	 */
+	private static void checkTagKey() {
+		String key = "0123456789abcdef0123456789abcdef";
+		String compact = TagKey.toUri(key, true);
+		check("compact tag key round trip", key.equals(TagKey
+				.fromUri(compact)));
+		check("compact tag key is shorter", compact.length() < TagKey
+				.toUri(key, false).length());
+		check("legacy tag key round trip", key.equals(TagKey.fromUri(TagKey
+				.toUri(key, false))));
+		check("legacy tag key with path", key.equals(TagKey
+				.fromUri(TagKey.LEGACY_PREFIX + key + "/")));
+		String upper = key.toUpperCase(Locale.US);
+		check("upper case key is written in legacy format", upper
+				.equals(TagKey.fromUri(TagKey.toUri(upper, true))));
+		check("short key is written in legacy format", "7e57".equals(TagKey
+				.fromUri(TagKey.toUri("7e57", true))));
+
+		check("max key length", TagKey.fromUri(TagKey.LEGACY_PREFIX + key
+				+ "0") == null);
+		char[] big = new char[1 << 16];
+		Arrays.fill(big, 'A');
+		String s = new String(big);
+		check("oversized tag keys", TagKey.fromUri(compact + s) == null
+				&& TagKey.fromUri(TagKey.LEGACY_PREFIX + s) == null);
+		String[] bad = new String[] { null, "", TagKey.SCHEME,
+				TagKey.LEGACY_PREFIX, TagKey.SCHEME + ":",
+				TagKey.SCHEME + ":2" + compact.substring(12),
+				compact.substring(0, compact.length() - 1),
+				compact.substring(0, compact.length() - 1) + "=",
+				compact.substring(0, compact.length() - 1) + "+",
+				// unused bits set
+				compact.substring(0, compact.length() - 1) + "B",
+				"http://" + key, TagKey.LEGACY_PREFIX + "xyz" };
+		boolean rejected = true;
+		for (String u : bad) {
+			rejected &= TagKey.fromUri(u) == null;
+		}
+		check("malformed tag keys", rejected);
+	}
+
+	/**
+	 * {@link TagProfile} round trips name and plan and rejects malformed
+	 * payloads.
+	 * 
+	 * @param platform
+	 *            {@link MemoryPlatform}
+	 */
+	private static void checkTagProfile(final MemoryPlatform platform) {
+		KeyValueStore p = platform.getPreferences("tag");
+		Fixtures.putProfile(p, "tag");
+		ProfilePlan plan = ProfilePlan.compile(p);
+		TagProfile tp = TagProfile.fromBytes(new TagProfile("\u00e4",
+				plan).toByteArray());
+		check("tag profile round trip", "\u00e4".equals(tp.getName())
+				&& Arrays.equals(plan.toByteArray(), tp.getPlan()
+						.toByteArray()));
+
+		byte[] b = new TagProfile("tag", plan).toByteArray();
+		byte[][] bad = new byte[][] { new byte[0], new byte[] { 0, 0 },
+				Arrays.copyOf(b, 2), Arrays.copyOf(b, 4) };
+		boolean rejected = true;
+		for (byte[] x : bad) {
+			try {
+				TagProfile.fromBytes(x);
+				rejected = false;
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		check("malformed tag profiles", rejected);
+	}
+}
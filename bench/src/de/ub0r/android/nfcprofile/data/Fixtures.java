@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shared fixtures for benchmarks and checks.
+ * 
+ * @author flx
+ */
+final class Fixtures {
+	/** Value stored for each {@link Setting} of a test {@link Profile}. */
+	private static final String[][] VALUES = new String[][] {
+			{ "AirplaneModeSetting", Setting.DEACTIVATE },
+			{ "ScreenTimeoutSetting", "60" },
+			{ "ScreenBrightnessSetting", "128" },
+			{ "VibratorSetting_0", Setting.ACTIVATE },
+			{ "VibratorSetting_1", Setting.DEACTIVATE },
+			{ "RingModeSetting", Setting.ACTIVATE }, };
+
+	/**
+	 * No instances.
+	 */
+	private Fixtures() {
+		// nothing to do
+	}
+
+	/**
+	 * @return new {@link MemoryPlatform} on a fresh temporary directory,
+	 *         holding typical system settings
+	 * @throws IOException
+	 *             IOException
+	 */
+	static MemoryPlatform newPlatform() throws IOException {
+		File d = File.createTempFile("nfcprofile", "");
+		if (!d.delete() || !d.mkdir()) {
+			throw new IOException("can not create " + d);
+		}
+		MemoryPlatform platform = new MemoryPlatform(d);
+		platform.putInt(SystemSettingsPort.AIRPLANE_MODE_ON, 0);
+		platform.putString(SystemSettingsPort.AIRPLANE_MODE_RADIOS,
+				"cell,bluetooth,wifi,nfc");
+		platform.putInt(SystemSettingsPort.SCREEN_OFF_TIMEOUT, 30000);
+		platform.putInt(SystemSettingsPort.SCREEN_BRIGHTNESS, 100);
+		platform.putInt(SystemSettingsPort.SCREEN_BRIGHTNESS_MODE,
+				SystemSettingsPort.SCREEN_BRIGHTNESS_MODE_MANUAL);
+		return platform;
+	}
+
+	/**
+	 * Write a {@link Profile} touching all {@link Setting}s.
+	 * 
+	 * @param p
+	 *            profile's {@link KeyValueStore}
+	 * @param name
+	 *            profile's name
+	 */
+	static void putProfile(final KeyValueStore p, final String name) {
+		p.putString("name", name);
+		for (String[] v : VALUES) {
+			p.putString(v[0], v[1]);
+		}
+		p.apply();
+	}
+}
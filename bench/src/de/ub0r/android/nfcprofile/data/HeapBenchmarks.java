@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.ub0r.android.nfcprofile.Bench;
+
+/**
+ * Heap retained for a number of {@link Profile}s after all of them were
+ * listed and loaded: by {@link ProfileRegistry} and {@link ProfileCache},
+ * compared to keeping every {@link Profile}'s preferences open as older
+ * versions did.
+ * 
+ * @author flx
+ */
+public final class HeapBenchmarks {
+	/** Bytes per kB. */
+	private static final long KB = 1024L;
+
+	/**
+	 * No instances.
+	 */
+	private HeapBenchmarks() {
+		// nothing to do
+	}
+
+	/**
+	 * @param args
+	 *            number of {@link Profile}s
+	 * @throws Exception
+	 *             Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int n = Integer.parseInt(args[0]);
+		MemoryPlatform platform = Fixtures.newPlatform();
+		LinkedHashMap<String, String> names = new LinkedHashMap<String, String>(
+				n);
+		for (int i = 0; i < n; i++) {
+			String k = String.format(Locale.US, "%032x", i);
+			KeyValueStore p = platform.getPreferences(k);
+			Fixtures.putProfile(p, "profile " + i);
+			ProfilePlan.compile(p).save(platform, k);
+			names.put(k, "profile " + i);
+		}
+
+		long h0 = Bench.usedHeap();
+		// includes the registry's own store, kept in memory on devices too
+		ProfileRegistry r = ProfileRegistry.getInstance(platform);
+		r.putAll(names);
+		long h1 = Bench.usedHeap();
+		loadAll(platform, r);
+		long h2 = Bench.usedHeap();
+		// older versions: every profile's preferences stay open
+		List<Map<String, ?>> open = openAll(platform, r);
+		long h3 = Bench.usedHeap();
+		if (open.size() != n) {
+			throw new IllegalStateException("missing profiles");
+		}
+
+		Bench.value(n + " profiles, registry", (h1 - h0) / KB, "kB");
+		Bench.value(n + " profiles, cache", (h2 - h1) / KB, "kB");
+		Bench.value(n + " profiles, cache estimate",
+				ProfileCache.getBytes() / KB, "kB");
+		Bench.value(n + " profiles, open preferences", (h3 - h2) / KB, "kB");
+		System.exit(0);
+	}
+
+	/**
+	 * Load all {@link Profile}s through the {@link ProfileCache}. Runs in its
+	 * own frame, so the list does not outlive it.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param r
+	 *            {@link ProfileRegistry}
+	 */
+	private static void loadAll(final Platform platform,
+			final ProfileRegistry r) {
+		for (String[] kv : r.list()) {
+			ProfileCache.get(platform, kv[0]);
+		}
+	}
+
+	/**
+	 * Copy all {@link Profile}s' preferences.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param r
+	 *            {@link ProfileRegistry}
+	 * @return preferences of all {@link Profile}s
+	 */
+	private static List<Map<String, ?>> openAll(final Platform platform,
+			final ProfileRegistry r) {
+		List<String[]> keys = r.list();
+		ArrayList<Map<String, ?>> ret = new ArrayList<Map<String, ?>>(
+				keys.size());
+		for (String[] kv : keys) {
+			ret.add(new HashMap<String, Object>(platform.getPreferences(
+					kv[0]).getAll()));
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Platform} held in memory. Each call to a port may be delayed to
+ * mimic a slow settings provider.
+ * 
+ * @author flx
+ */
+public final class MemoryPlatform implements Platform, SystemSettingsPort,
+		AudioPort, BroadcastPort {
+	/** System settings. */
+	private final Map<String, String> settings = new HashMap<String, String>();
+	/** Vibrate settings by type. */
+	private final int[] vibrate = new int[2];
+	/** Ringer mode. */
+	private volatile int ringerMode = RINGER_MODE_NORMAL;
+	/** Stores by name. */
+	private final Map<String, Map<String, Object>> stores = new HashMap<String, Map<String, Object>>();
+	/** Number of writing apply() calls on all stores. */
+	private final AtomicInteger applies = new AtomicInteger();
+	/** Number of port writes. */
+	private final AtomicInteger writes = new AtomicInteger();
+	/** Private directory. */
+	private final File dir;
+	/** Delay of each port call in ns. */
+	private volatile long latency;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param dir
+	 *            directory holding private directories
+	 */
+	public MemoryPlatform(final File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * @param ns
+	 *            delay of each port call
+	 */
+	public void setLatency(final long ns) {
+		this.latency = ns;
+	}
+
+	/**
+	 * @return number of writing apply() calls on all stores
+	 */
+	public int getApplies() {
+		return this.applies.get();
+	}
+
+	/**
+	 * @return number of writes to system settings and audio
+	 */
+	public int getWrites() {
+		return this.writes.get();
+	}
+
+	/**
+	 * Spin for the configured latency.
+	 */
+	private void delay() {
+		final long l = this.latency;
+		if (l <= 0L) {
+			return;
+		}
+		final long end = System.nanoTime() + l;
+		while (System.nanoTime() < end) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SystemSettingsPort getSystemSettings() {
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AudioPort getAudio() {
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public BroadcastPort getBroadcasts() {
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public KeyValueStore getPreferences(final String name) {
+		final String n = name == null ? "" : name;
+		Map<String, Object> values;
+		synchronized (this.stores) {
+			values = this.stores.get(n);
+			if (values == null) {
+				values = new HashMap<String, Object>();
+				this.stores.put(n, values);
+			}
+		}
+		return new MemoryStore(values, this.applies);
+	}
+
+	/**
+	 * @return number of stores opened so far
+	 */
+	public int getStoreCount() {
+		synchronized (this.stores) {
+			return this.stores.size();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public File getDir(final String name) {
+		File d = new File(this.dir, name);
+		d.mkdirs();
+		return d;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getInt(final String name, final int def) {
+		final String s = this.getString(name);
+		return s == null ? def : Integer.parseInt(s);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getString(final String name) {
+		this.delay();
+		synchronized (this.settings) {
+			return this.settings.get(name);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean putInt(final String name, final int value) {
+		return this.putString(name, String.valueOf(value));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean putString(final String name, final String value) {
+		this.delay();
+		this.writes.incrementAndGet();
+		synchronized (this.settings) {
+			this.settings.put(name, value);
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getRingerMode() {
+		this.delay();
+		return this.ringerMode;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRingerMode(final int mode) {
+		this.delay();
+		this.writes.incrementAndGet();
+		this.ringerMode = mode;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getVibrateSetting(final int type) {
+		this.delay();
+		synchronized (this.vibrate) {
+			return this.vibrate[type];
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setVibrateSetting(final int type, final int setting) {
+		this.delay();
+		this.writes.incrementAndGet();
+		synchronized (this.vibrate) {
+			this.vibrate[type] = setting;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sendAirplaneModeChanged(final boolean state) {
+		this.delay();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link KeyValueStore} held in memory. Writes are collected until apply(),
+ * like with the Editor behind {@link PrefsStore}.
+ * 
+ * @author flx
+ */
+public final class MemoryStore implements KeyValueStore {
+	/** Marker for removed keys. */
+	private static final Object REMOVED = new Object();
+
+	/** Persisted values. */
+	private final Map<String, Object> values;
+	/** Values put since last apply(). */
+	private final Map<String, Object> pending = new HashMap<String, Object>();
+	/** Number of apply() calls which wrote something. */
+	private final AtomicInteger applies;
+
+	/**
+	 * Default constructor.
+	 */
+	public MemoryStore() {
+		this(new HashMap<String, Object>(), new AtomicInteger());
+	}
+
+	/**
+	 * Open a store on shared values.
+	 * 
+	 * @param values
+	 *            persisted values
+	 * @param applies
+	 *            counter for apply() calls
+	 */
+	MemoryStore(final Map<String, Object> values, final AtomicInteger applies) {
+		this.values = values;
+		this.applies = applies;
+	}
+
+	/**
+	 * @return number of apply() calls which wrote something
+	 */
+	public int getApplies() {
+		return this.applies.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getInt(final String key, final int def) {
+		synchronized (this.values) {
+			Object o = this.values.get(key);
+			return o == null ? def : (Integer) o;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getString(final String key, final String def) {
+		synchronized (this.values) {
+			Object o = this.values.get(key);
+			return o == null ? def : (String) o;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, ?> getAll() {
+		synchronized (this.values) {
+			return new HashMap<String, Object>(this.values);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void putInt(final String key, final int value) {
+		this.pending.put(key, value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void putString(final String key, final String value) {
+		this.pending.put(key, value == null ? REMOVED : value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void remove(final String key) {
+		this.pending.put(key, REMOVED);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void apply() {
+		if (this.pending.isEmpty()) {
+			return;
+		}
+		synchronized (this.values) {
+			for (Map.Entry<String, Object> e : this.pending.entrySet()) {
+				if (e.getValue() == REMOVED) {
+					this.values.remove(e.getKey());
+				} else {
+					this.values.put(e.getKey(), e.getValue());
+				}
+			}
+		}
+		this.pending.clear();
+		this.applies.incrementAndGet();
+	}
+}
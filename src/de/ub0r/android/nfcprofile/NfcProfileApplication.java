@@ -16,8 +16,23 @@
  */
 package de.ub0r.android.nfcprofile;
 
+import java.util.List;
+
 import android.app.Application;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.os.StrictMode;
+import android.preference.PreferenceManager;
 import de.ub0r.android.lib.Log;
+import de.ub0r.android.nfcprofile.data.AndroidPlatform;
+import de.ub0r.android.nfcprofile.data.Log.Sink;
+import de.ub0r.android.nfcprofile.data.Platform;
+import de.ub0r.android.nfcprofile.data.PrefsStore;
+import de.ub0r.android.nfcprofile.data.Profile;
+import de.ub0r.android.nfcprofile.data.ProfileCache;
+import de.ub0r.android.nfcprofile.data.ProfileRegistry;
+import de.ub0r.android.nfcprofile.data.TapTracer;
+import de.ub0r.android.nfcprofile.ui.DiagnosticsActivity;
 
 /**
  * {@link Application}.
@@ -25,9 +40,93 @@ import de.ub0r.android.lib.Log;
  * @author flx
  */
 public final class NfcProfileApplication extends Application {
+	/** Tag for Logging. */
+	private static final String TAG = "app";
+
+	/** Preference name: load state of recently used profiles at start. */
+	public static final String PREF_WARM_UP = "warm_up";
+
+	/**
+	 * Send log messages of the data package to {@link Log}.
+	 */
+	private static final Sink SINK = new Sink() {
+		@Override
+		public void d(final String tag, final String msg) {
+			Log.d(tag, msg);
+		}
+
+		@Override
+		public void i(final String tag, final String msg) {
+			Log.i(tag, msg);
+		}
+
+		@Override
+		public void w(final String tag, final String msg, final Throwable t) {
+			Log.w(tag, msg, t);
+		}
+
+		@Override
+		public void e(final String tag, final String msg, final Throwable t) {
+			Log.e(tag, msg, t);
+		}
+	};
+
+	/**
+	 * Initialize logging, including the data package's.
+	 */
+	static void initLog() {
+		Log.init("NfcProfile");
+		de.ub0r.android.nfcprofile.data.Log.setSink(SINK);
+	}
+
 	@Override
 	public void onCreate() {
 		super.onCreate();
-		Log.init("NfcProfile");
+		initLog();
+		int flags = this.getApplicationInfo().flags;
+		if ((flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+			// fail hard on disk access from the main thread
+			StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+					.detectDiskReads().detectDiskWrites().penaltyLog()
+					.penaltyDeath().build());
+		}
+		// keep disk reads off the main thread
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				NfcProfileApplication app = NfcProfileApplication.this;
+				SharedPreferences p = PreferenceManager
+						.getDefaultSharedPreferences(app);
+				TapTracer.setTraceSections(p.getBoolean(
+						DiagnosticsActivity.PREF_TRACE_SECTIONS, false));
+				if (p.getBoolean(PREF_WARM_UP, false)) {
+					app.warmUp(p);
+				}
+			}
+		}, "warm-up");
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+
+	/**
+	 * Load the {@link ProfileRegistry} and recently used {@link Profile}s
+	 * into memory. Everything loaded is kept by {@link ProfileCache} and the
+	 * {@link ProfileRegistry} for the tap path.
+	 * 
+	 * @param p
+	 *            default {@link SharedPreferences}
+	 */
+	private void warmUp(final SharedPreferences p) {
+		long start = System.currentTimeMillis();
+		Platform platform = AndroidPlatform.getInstance(this);
+		List<String> keys = Profile.getRecentKeys(new PrefsStore(p));
+		ProfileRegistry registry = ProfileRegistry.getInstance(platform);
+		for (String k : keys) {
+			if (registry.contains(k)) {
+				ProfileCache.get(platform, k);
+			}
+		}
+		Log.d(TAG, "warmed up " + keys.size() + " profiles in "
+				+ (System.currentTimeMillis() - start) + "ms");
 	}
 }
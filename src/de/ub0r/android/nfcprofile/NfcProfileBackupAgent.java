@@ -22,26 +22,50 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import android.app.backup.BackupAgent;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
+import android.app.backup.BackupManager;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.preference.PreferenceManager;
 import de.ub0r.android.lib.Log;
+import de.ub0r.android.nfcprofile.data.AndroidPlatform;
+import de.ub0r.android.nfcprofile.data.NamedThreadFactory;
+import de.ub0r.android.nfcprofile.data.Platform;
+import de.ub0r.android.nfcprofile.data.PrefsStore;
 import de.ub0r.android.nfcprofile.data.Profile;
+import de.ub0r.android.nfcprofile.data.ProfilePlan;
+import de.ub0r.android.nfcprofile.data.ProfileRegistry;
 
 /**
- * {@link BackupAgent} implementation.
+ * {@link BackupAgent} implementation. The backup state holds a hash of each
+ * entity, only changed entities are sent again.
  * 
  * @author flx
  */
@@ -49,47 +73,118 @@ public final class NfcProfileBackupAgent extends BackupAgent {
 	/** Tag for Logging. */
 	private static final String TAG = "backup";
 
-	/** Preference name: last change of something. */
-	public static final String PREF_LAST_CHANGE = "_last_change";
 	/** Header for main prefs. */
 	private static final String HEADER_MAIN = "main";
 	/** Header for profile. */
 	private static final String HEADER_PROFILE = "profile_";
+	/** Number of threads decoding restored entities. */
+	private static final int RESTORE_THREADS = 4;
+	/** Number of buffers holding restored entities. */
+	private static final int RESTORE_BUFFERS = RESTORE_THREADS * 2;
+	/** Initial size of buffers holding restored entities. */
+	private static final int RESTORE_BUFFER_SIZE = 1024;
+	/** Max time to wait for restored entities being written. */
+	private static final long RESTORE_TIMEOUT = 60000L;
+	/** Magic number starting state files holding hashes. */
+	private static final int STATE_MAGIC = 0x4e465032;
 
 	/**
-	 * Backup data..
+	 * Request a backup. Call this whenever default or profile's
+	 * {@link SharedPreferences} are changed. The request is kept by the
+	 * system, unchanged entities are not sent again.
+	 * 
+	 * @param context
+	 *            {@link Context}
+	 */
+	public static void requestBackup(final Context context) {
+		Log.d(TAG, "request backup");
+		new BackupManager(context).dataChanged();
+	}
+
+	/**
+	 * Backup changed data.
 	 * 
 	 * @param data
 	 *            {@link BackupDataOutput} from onBackup()
+	 * @param oldHashes
+	 *            hashes of entities already backed up
+	 * @return hashes of all current entities
 	 * @throws IOException
 	 *             IOException
 	 */
-	private void doBackup(final BackupDataOutput data) throws IOException {
+	private HashMap<String, byte[]> doBackup(final BackupDataOutput data,
+			final Map<String, byte[]> oldHashes) throws IOException {
 		Log.d(TAG, "doBackup()");
-		// backup default prefs
+		HashMap<String, byte[]> hashes = new HashMap<String, byte[]>();
 		ByteArrayOutputStream bufStream = new ByteArrayOutputStream();
-		ObjectOutputStream out = new ObjectOutputStream(bufStream);
-		SharedPreferences p = PreferenceManager
-				.getDefaultSharedPreferences(this);
-		writePrefsToStream(p, out);
-		byte[] buf = bufStream.toByteArray();
-		Log.d(TAG, "backup main: " + buf.length);
-		data.writeEntityHeader(HEADER_MAIN, buf.length);
-		data.writeEntityData(buf, buf.length);
+		// backup default prefs
+		backupEntity(data, HEADER_MAIN, PreferenceManager
+				.getDefaultSharedPreferences(this).getAll(), bufStream,
+				oldHashes, hashes);
 
-		// backup profiles
-		List<String[]> keys = Profile.getValidKeys(this);
+		// backup profiles from their plans, keeps their prefs closed
+		Platform platform = AndroidPlatform.getInstance(this);
+		List<String[]> keys = Profile.getValidKeys(platform);
 		for (String[] k : keys) {
 			String key = k[0];
-			p = this.getSharedPreferences(key, MODE_PRIVATE);
-			bufStream = new ByteArrayOutputStream();
-			out = new ObjectOutputStream(bufStream);
-			writePrefsToStream(p, out);
-			buf = bufStream.toByteArray();
-			Log.d(TAG, "backup profile: " + key + " " + buf.length);
-			data.writeEntityHeader(HEADER_PROFILE + key, buf.length);
-			data.writeEntityData(buf, buf.length);
+			backupEntity(data, HEADER_PROFILE + key, ProfilePlan
+					.loadOrCompile(platform, key).toPrefs(k[1]), bufStream,
+					oldHashes, hashes);
+		}
+
+		// delete removed profiles
+		for (String header : oldHashes.keySet()) {
+			if (!hashes.containsKey(header)) {
+				Log.d(TAG, "backup delete: " + header);
+				data.writeEntityHeader(header, -1);
+			}
 		}
+		return hashes;
+	}
+
+	/**
+	 * Backup a single entity unless it is unchanged.
+	 * 
+	 * @param data
+	 *            {@link BackupDataOutput} from onBackup()
+	 * @param header
+	 *            entity's header
+	 * @param prefs
+	 *            {@link Map} as returned by {@link SharedPreferences#getAll()}
+	 * @param bufStream
+	 *            reused buffer
+	 * @param oldHashes
+	 *            hashes of entities already backed up
+	 * @param hashes
+	 *            hashes of current entities, entity's hash is added
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static void backupEntity(final BackupDataOutput data,
+			final String header, final Map<String, ?> prefs,
+			final ByteArrayOutputStream bufStream,
+			final Map<String, byte[]> oldHashes,
+			final Map<String, byte[]> hashes) throws IOException {
+		bufStream.reset();
+		// sort keys to get the same bytes for the same content
+		PrefsCodec.encode(new TreeMap<String, Object>(prefs), bufStream);
+		byte[] buf = bufStream.toByteArray();
+		byte[] hash = hash(buf, buf.length);
+		hashes.put(header, hash);
+		if (Arrays.equals(hash, oldHashes.get(header))) {
+			Log.d(TAG, "unchanged: " + header);
+			return;
+		}
+		Log.d(TAG, "backup: " + header + " " + buf.length);
+		data.writeEntityHeader(header, buf.length);
+		data.writeEntityData(buf, buf.length);
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		// agent may run without NfcProfileApplication
+		NfcProfileApplication.initLog();
 	}
 
 	@Override
@@ -97,135 +192,293 @@ public final class NfcProfileBackupAgent extends BackupAgent {
 			final BackupDataOutput data, final ParcelFileDescriptor newState)
 			throws IOException {
 		Log.d(TAG, "onBackup()");
-		FileInputStream instream = new FileInputStream(
-				oldState.getFileDescriptor());
-		DataInputStream in = new DataInputStream(instream);
-		long lastModified = 0;
-		try {
-			// Get the last modified timestamp from the state file and data file
-			long stateModified = in.readLong();
-			SharedPreferences p = PreferenceManager
-					.getDefaultSharedPreferences(this);
-			lastModified = p.getLong(PREF_LAST_CHANGE, -1);
-			Log.d(TAG, "stateModified: " + stateModified);
-			Log.d(TAG, "lastModified: " + lastModified);
-			if (stateModified != lastModified) {
-				// we need a backup
-				this.doBackup(data);
-				lastModified = System.currentTimeMillis();
-			} else {
-				return;
-			}
-		} catch (IOException e) {
-			this.doBackup(data);
-			lastModified = System.currentTimeMillis();
-		}
-		FileOutputStream outstream = new FileOutputStream(
-				newState.getFileDescriptor());
-		DataOutputStream out = new DataOutputStream(outstream);
-		out.writeLong(lastModified);
+		HashMap<String, byte[]> hashes = this.doBackup(data,
+				readState(oldState));
+		writeState(newState, hashes);
 	}
 
 	@Override
 	public void onRestore(final BackupDataInput data, final int appVersionCode,
 			final ParcelFileDescriptor newState) throws IOException {
 		Log.d(TAG, "onRestore()");
-		while (data.readNextHeader()) {
-			String header = data.getKey();
-			int dataSize = data.getDataSize();
-
-			if (HEADER_MAIN.equals(header)) {
-				// restore default prefs
-				Log.d(TAG, "restore main: " + dataSize);
-				byte[] dataBuf = new byte[dataSize];
-				data.readEntityData(dataBuf, 0, dataSize);
-				ByteArrayInputStream baStream = new ByteArrayInputStream(
-						dataBuf);
-				ObjectInputStream in = new ObjectInputStream(baStream);
-				SharedPreferences p = PreferenceManager
-						.getDefaultSharedPreferences(this);
-				try {
-					readPrefsFromStream(p, in);
-				} catch (ClassNotFoundException e) {
-					Log.e(TAG, "error restoring default SharedPreferences");
+		long start = System.currentTimeMillis();
+		final Platform platform = AndroidPlatform.getInstance(this);
+		final ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(
+				RESTORE_BUFFERS);
+		for (int i = 0; i < RESTORE_BUFFERS; i++) {
+			buffers.add(new byte[RESTORE_BUFFER_SIZE]);
+		}
+		final Map<String, byte[]> hashes = Collections
+				.synchronizedMap(new HashMap<String, byte[]>());
+		// key and name of each restored profile in archive order
+		ArrayList<String[]> profiles = new ArrayList<String[]>();
+		ExecutorService pool = Executors.newFixedThreadPool(RESTORE_THREADS,
+				new NamedThreadFactory("restore"));
+		int count = 0;
+		try {
+			while (data.readNextHeader()) {
+				final String header = data.getKey();
+				final int dataSize = data.getDataSize();
+				final String k;
+				final SharedPreferences p;
+				final String[] profile;
+				if (HEADER_MAIN.equals(header)) {
+					// restore default prefs
+					Log.d(TAG, "restore main: " + dataSize);
+					k = null;
+					p = PreferenceManager.getDefaultSharedPreferences(this);
+					profile = null;
+				} else if (header.startsWith(HEADER_PROFILE)) {
+					// restore profiles
+					k = header.substring(HEADER_PROFILE.length());
+					if (!Profile.isWellFormedKey(k)) {
+						// no file name, not registered
+						Log.w(TAG, "skip malformed key: " + header);
+						data.skipEntityData();
+						continue;
+					}
+					Log.d(TAG, "restore profile: " + k + " " + dataSize);
+					p = this.getSharedPreferences(k, MODE_PRIVATE);
+					profile = new String[] { k, null };
+					profiles.add(profile);
+				} else {
+					data.skipEntityData();
+					continue;
+				}
+
+				// blocks while all buffers are waiting for decoding
+				byte[] b = buffers.take();
+				if (b.length < dataSize) {
+					b = new byte[dataSize];
 				}
-			} else if (header.startsWith(HEADER_PROFILE)) {
-				// restore profiles
-				String k = header.substring(header.indexOf("_") + 1);
-				Log.d(TAG, "restore profile: " + k + " " + dataSize);
-				byte[] dataBuf = new byte[dataSize];
-				data.readEntityData(dataBuf, 0, dataSize);
-				ByteArrayInputStream baStream = new ByteArrayInputStream(
-						dataBuf);
-				ObjectInputStream in = new ObjectInputStream(baStream);
-				SharedPreferences p = this
-						.getSharedPreferences(k, MODE_PRIVATE);
-				try {
-					readPrefsFromStream(p, in);
-				} catch (ClassNotFoundException e) {
-					Log.e(TAG, "error restoring default SharedPreferences");
+				data.readEntityData(b, 0, dataSize);
+				final byte[] dataBuf = b;
+				++count;
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (!readPrefs(p, dataBuf, dataSize)) {
+								Log.e(TAG, "error restoring: " + header);
+								return;
+							}
+							hashes.put(header, hash(dataBuf, dataSize));
+							if (profile != null) {
+								ProfilePlan.compile(new PrefsStore(p)).save(
+										platform, k);
+								// registered only if restored completely
+								profile[1] = p.getString("name", null);
+							}
+						} catch (RuntimeException e) {
+							// not registered, its name stays unset
+							Log.e(TAG, "error restoring: " + header, e);
+						} finally {
+							buffers.add(dataBuf);
+						}
+					}
+				});
+			}
+		} catch (InterruptedException e) {
+			Log.e(TAG, "restore interrupted", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			// wait for all decoders, their writes are queued by apply()
+			pool.shutdown();
+			try {
+				if (!pool.awaitTermination(RESTORE_TIMEOUT,
+						TimeUnit.MILLISECONDS)) {
+					Log.e(TAG, "restore timed out");
 				}
-			} else {
-				data.skipEntityData();
+			} catch (InterruptedException e) {
+				Log.e(TAG, "restore interrupted", e);
+				Thread.currentThread().interrupt();
 			}
 		}
+		LinkedHashMap<String, String> names = new LinkedHashMap<String, String>(
+				profiles.size());
+		for (String[] profile : profiles) {
+			if (profile[1] != null) {
+				names.put(profile[0], profile[1]);
+			}
+		}
+		ProfileRegistry.getInstance(platform).putAll(names);
+		writeState(newState, hashes);
+		// BackupAgent waits for all pending SharedPreferences writes after
+		// onRestore() returns, that is the only sync to disk
+		Log.i(TAG, "restored " + count + " entities in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
 
-		long l = System.currentTimeMillis();
-		PreferenceManager.getDefaultSharedPreferences(this).edit()
-				.putLong(PREF_LAST_CHANGE, l);
+	/**
+	 * Hash backup data.
+	 * 
+	 * @param buf
+	 *            data
+	 * @param length
+	 *            length of data
+	 * @return hash
+	 */
+	private static byte[] hash(final byte[] buf, final int length) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			md.update(buf, 0, length);
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("no md5", e);
+		}
+	}
+
+	/**
+	 * Read hashes from backup state.
+	 * 
+	 * @param state
+	 *            state written by writeState() or by older versions
+	 * @return hashes by entity's header, empty if state is empty or unknown
+	 */
+	private static HashMap<String, byte[]> readState(
+			final ParcelFileDescriptor state) {
+		HashMap<String, byte[]> ret = new HashMap<String, byte[]>();
+		if (state == null) {
+			return ret;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(
+				state.getFileDescriptor()));
+		try {
+			if (in.readInt() != STATE_MAGIC) {
+				Log.d(TAG, "unknown state, full backup");
+				return ret;
+			}
+			int l = in.readInt();
+			for (int i = 0; i < l; i++) {
+				String header = in.readUTF();
+				byte[] hash = new byte[in.readUnsignedByte()];
+				in.readFully(hash);
+				ret.put(header, hash);
+			}
+		} catch (IOException e) {
+			Log.d(TAG, "no valid state, full backup");
+			ret.clear();
+		}
+		return ret;
+	}
+
+	/**
+	 * Write hashes to backup state.
+	 * 
+	 * @param state
+	 *            new state
+	 * @param hashes
+	 *            hashes by entity's header
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static void writeState(final ParcelFileDescriptor state,
+			final Map<String, byte[]> hashes) throws IOException {
+		ByteArrayOutputStream bufStream = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bufStream);
+		out.writeInt(STATE_MAGIC);
+		out.writeInt(hashes.size());
+		for (Map.Entry<String, byte[]> e : hashes.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeByte(e.getValue().length);
+			out.write(e.getValue());
+		}
 		FileOutputStream outstream = new FileOutputStream(
-				newState.getFileDescriptor());
-		DataOutputStream out = new DataOutputStream(outstream);
-		out.writeLong(l);
+				state.getFileDescriptor());
+		bufStream.writeTo(outstream);
 	}
 
 	/**
-	 * Read {@link SharedPreferences} from {@link ObjectInputStream}.
+	 * Read {@link SharedPreferences} from backup data.
 	 * 
 	 * @param p
 	 *            {@link SharedPreferences}
+	 * @param buf
+	 *            data written by {@link PrefsCodec} or by older versions
+	 * @param length
+	 *            length of data
+	 * @return true, if data was decoded and its write is queued
+	 */
+	private static boolean readPrefs(final SharedPreferences p,
+			final byte[] buf, final int length) {
+		ByteArrayInputStream in = new ByteArrayInputStream(buf, 0, length);
+		try {
+			Map<String, Object> map;
+			if (PrefsCodec.isLegacy(buf, length)) {
+				map = readLegacyPrefs(new ObjectInputStream(in));
+			} else {
+				map = PrefsCodec.decode(in, length);
+			}
+			Editor e = p.edit();
+			e.clear();
+			writePrefs(map, e);
+			e.apply();
+			return true;
+		} catch (IOException e) {
+			Log.e(TAG, "error reading backup data", e);
+		} catch (ClassNotFoundException e) {
+			Log.e(TAG, "error reading legacy backup data", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Read data written by older versions to {@link ObjectOutputStream}.
+	 * 
 	 * @param in
 	 *            {@link ObjectInputStream}
+	 * @return map of preferences
 	 * @throws IOException
 	 *             IOException
 	 * @throws ClassNotFoundException
 	 *             Class not found
 	 */
-	private static void readPrefsFromStream(final SharedPreferences p,
+	private static Map<String, Object> readLegacyPrefs(
 			final ObjectInputStream in) throws IOException,
 			ClassNotFoundException {
-		Editor e = p.edit();
-		e.clear();
-		while (in.available() > 0) {
-			String k = in.readUTF();
-			Object o = in.readObject();
-			if (o instanceof String) {
-				e.putString(k, (String) o);
-			} else if (o instanceof Integer) {
-				e.putInt(k, (Integer) o);
-			} else if (o instanceof Boolean) {
-				e.putBoolean(k, (Boolean) o);
+		HashMap<String, Object> ret = new HashMap<String, Object>();
+		while (true) {
+			String k;
+			try {
+				k = in.readUTF();
+			} catch (EOFException e) {
+				return ret;
 			}
+			ret.put(k, in.readObject());
 		}
-		e.apply();
 	}
 
 	/**
-	 * Write {@link SharedPreferences} to {@link ObjectOutputStream}.
+	 * Put typed values to an {@link Editor}.
 	 * 
-	 * @param p
-	 *            {@link SharedPreferences}
-	 * @param out
-	 *            {@link ObjectOutputStream}
-	 * @throws IOException
-	 *             IOException
+	 * @param map
+	 *            map as decoded by {@link PrefsCodec}
+	 * @param e
+	 *            {@link Editor}
 	 */
-	private static void writePrefsToStream(final SharedPreferences p,
-			final ObjectOutputStream out) throws IOException {
-		Map<String, ?> map = p.getAll();
-		for (String k : map.keySet()) {
-			out.writeUTF(k);
-			out.writeObject(map.get(k));
+	@SuppressWarnings("unchecked")
+	private static void writePrefs(final Map<String, Object> map,
+			final Editor e) {
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			String k = entry.getKey();
+			Object o = entry.getValue();
+			if (o instanceof String) {
+				e.putString(k, (String) o);
+			} else if (o instanceof Integer) {
+				e.putInt(k, (Integer) o);
+			} else if (o instanceof Long) {
+				e.putLong(k, (Long) o);
+			} else if (o instanceof Float) {
+				e.putFloat(k, (Float) o);
+			} else if (o instanceof Boolean) {
+				e.putBoolean(k, (Boolean) o);
+			} else if (o instanceof Set<?>) {
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+					e.putStringSet(k, (Set<String>) o);
+				} else {
+					Log.w(TAG, "drop string set: " + k);
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary codec for maps as returned by SharedPreferences.getAll().
+ * 
+ * Format: a version byte followed by entries and an end tag. Each entry is a
+ * type tag, the key and the value, both prefixed with their length. Lengths
+ * are written as unsigned varints. Unknown tags are skipped by their length.
+ * 
+ * @author flx
+ */
+public final class PrefsCodec {
+	/** Format version. */
+	public static final int VERSION = 1;
+	/** First byte written by ObjectOutputStream. */
+	private static final int LEGACY_MAGIC = 0xAC;
+
+	/** Tag: end of entries. */
+	private static final int T_END = 0;
+	/** Tag: {@link String}. */
+	private static final int T_STRING = 1;
+	/** Tag: {@link Integer}. */
+	private static final int T_INT = 2;
+	/** Tag: {@link Long}. */
+	private static final int T_LONG = 3;
+	/** Tag: {@link Float}. */
+	private static final int T_FLOAT = 4;
+	/** Tag: {@link Boolean}. */
+	private static final int T_BOOLEAN = 5;
+	/** Tag: {@link Set} of {@link String}s. */
+	private static final int T_STRING_SET = 6;
+
+	/** Bits per byte. */
+	private static final int BITS = 8;
+	/** Mask for a single byte. */
+	private static final int BYTE = 0xff;
+	/** Payload bits per varint byte. */
+	private static final int VARINT_BITS = 7;
+	/** Continuation bit of varints. */
+	private static final int VARINT_MORE = 0x80;
+	/** Payload mask of varints. */
+	private static final int VARINT_MASK = 0x7f;
+
+	/** Encoding of keys and strings. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * No instances.
+	 */
+	private PrefsCodec() {
+		// nothing to do
+	}
+
+	/**
+	 * Check if data was written by older versions using ObjectOutputStream.
+	 * 
+	 * @param b
+	 *            encoded data
+	 * @param length
+	 *            length of data
+	 * @return true, if data needs to be read by ObjectInputStream
+	 */
+	public static boolean isLegacy(final byte[] b, final int length) {
+		return length > 0 && (b[0] & BYTE) == LEGACY_MAGIC;
+	}
+
+	/**
+	 * Encode a map.
+	 * 
+	 * @param map
+	 *            map as returned by SharedPreferences.getAll()
+	 * @param out
+	 *            {@link OutputStream}
+	 * @throws IOException
+	 *             IOException
+	 */
+	public static void encode(final Map<String, ?> map, final OutputStream out)
+			throws IOException {
+		out.write(VERSION);
+		byte[] buf = new byte[BITS];
+		for (Map.Entry<String, ?> e : map.entrySet()) {
+			Object o = e.getValue();
+			byte[] v;
+			int tag;
+			if (o instanceof String) {
+				tag = T_STRING;
+				v = ((String) o).getBytes(UTF8);
+			} else if (o instanceof Integer) {
+				tag = T_INT;
+				v = toBytes(buf, (Integer) o, 4);
+			} else if (o instanceof Long) {
+				tag = T_LONG;
+				v = toBytes(buf, (Long) o, BITS);
+			} else if (o instanceof Float) {
+				tag = T_FLOAT;
+				v = toBytes(buf, Float.floatToIntBits((Float) o), 4);
+			} else if (o instanceof Boolean) {
+				tag = T_BOOLEAN;
+				buf[0] = (byte) ((Boolean) o ? 1 : 0);
+				v = buf;
+			} else if (o instanceof Set<?>) {
+				tag = T_STRING_SET;
+				v = encodeSet((Set<?>) o);
+			} else {
+				// null or unknown type
+				continue;
+			}
+			int l = lengthOf(tag, v);
+			out.write(tag);
+			byte[] k = e.getKey().getBytes(UTF8);
+			writeVarint(out, k.length);
+			out.write(k);
+			writeVarint(out, l);
+			out.write(v, 0, l);
+		}
+		out.write(T_END);
+	}
+
+	/**
+	 * Decode a map written by encode(). Lengths read from data are checked
+	 * against the bytes left before allocating anything.
+	 * 
+	 * @param is
+	 *            {@link InputStream}
+	 * @param length
+	 *            number of bytes available from is
+	 * @return map holding {@link String}, {@link Integer}, {@link Long},
+	 *         {@link Float}, {@link Boolean} and {@link Set} values
+	 * @throws IOException
+	 *             IOException or invalid data
+	 */
+	public static Map<String, Object> decode(final InputStream is,
+			final int length) throws IOException {
+		BoundedInputStream in = new BoundedInputStream(is, length);
+		int version = in.read();
+		if (version != VERSION) {
+			throw new IOException("unknown version: " + version);
+		}
+		LinkedHashMap<String, Object> ret = new LinkedHashMap<String, Object>();
+		byte[] buf = new byte[BITS];
+		while (true) {
+			int tag = in.read();
+			if (tag == T_END) {
+				return ret;
+			} else if (tag < 0) {
+				throw new EOFException("missing end tag");
+			}
+			String k = readString(in, readVarint(in));
+			int l = readVarint(in);
+			switch (tag) {
+			case T_STRING:
+				ret.put(k, readString(in, l));
+				break;
+			case T_INT:
+				readFully(in, buf, l);
+				ret.put(k, (int) fromBytes(buf, l));
+				break;
+			case T_LONG:
+				readFully(in, buf, l);
+				ret.put(k, fromBytes(buf, l));
+				break;
+			case T_FLOAT:
+				readFully(in, buf, l);
+				ret.put(k, Float.intBitsToFloat((int) fromBytes(buf, l)));
+				break;
+			case T_BOOLEAN:
+				readFully(in, buf, l);
+				ret.put(k, buf[0] != 0);
+				break;
+			case T_STRING_SET:
+				int n = readVarint(in);
+				// each element takes at least one byte
+				in.require(n);
+				HashSet<String> set = new HashSet<String>(n);
+				for (int i = 0; i < n; i++) {
+					set.add(readString(in, readVarint(in)));
+				}
+				ret.put(k, set);
+				break;
+			default:
+				skipFully(in, l);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Get length of a value.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param v
+	 *            value's buffer
+	 * @return number of bytes to write from v
+	 */
+	private static int lengthOf(final int tag, final byte[] v) {
+		switch (tag) {
+		case T_INT:
+		case T_FLOAT:
+			return 4;
+		case T_LONG:
+			return BITS;
+		case T_BOOLEAN:
+			return 1;
+		default:
+			return v.length;
+		}
+	}
+
+	/**
+	 * Encode a {@link Set} of {@link String}s.
+	 * 
+	 * @param set
+	 *            {@link Set}
+	 * @return encoded {@link Set}
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static byte[] encodeSet(final Set<?> set) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeVarint(out, set.size());
+		for (Object o : set) {
+			byte[] b = String.valueOf(o).getBytes(UTF8);
+			writeVarint(out, b.length);
+			out.write(b);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Write a number big endian to a buffer.
+	 * 
+	 * @param buf
+	 *            buffer
+	 * @param v
+	 *            value
+	 * @param l
+	 *            number of bytes
+	 * @return buf
+	 */
+	private static byte[] toBytes(final byte[] buf, final long v, final int l) {
+		for (int i = 0; i < l; i++) {
+			buf[i] = (byte) (v >>> (BITS * (l - 1 - i)));
+		}
+		return buf;
+	}
+
+	/**
+	 * Read a big endian number from a buffer.
+	 * 
+	 * @param buf
+	 *            buffer
+	 * @param l
+	 *            number of bytes
+	 * @return value
+	 */
+	private static long fromBytes(final byte[] buf, final int l) {
+		long v = 0;
+		for (int i = 0; i < l; i++) {
+			v = v << BITS | (buf[i] & BYTE);
+		}
+		return v;
+	}
+
+	/**
+	 * Write an unsigned varint.
+	 * 
+	 * @param out
+	 *            {@link OutputStream}
+	 * @param v
+	 *            value
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static void writeVarint(final OutputStream out, final int v)
+			throws IOException {
+		int i = v;
+		while ((i & ~VARINT_MASK) != 0) {
+			out.write(i & VARINT_MASK | VARINT_MORE);
+			i >>>= VARINT_BITS;
+		}
+		out.write(i);
+	}
+
+	/**
+	 * Read an unsigned varint.
+	 * 
+	 * @param in
+	 *            {@link InputStream}
+	 * @return value
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static int readVarint(final InputStream in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < Integer.SIZE; shift += VARINT_BITS) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			v |= (b & VARINT_MASK) << shift;
+			if ((b & VARINT_MORE) == 0) {
+				if (v < 0) {
+					throw new IOException("invalid length: " + v);
+				}
+				return v;
+			}
+		}
+		throw new IOException("varint too long");
+	}
+
+	/**
+	 * Read a UTF-8 encoded {@link String}.
+	 * 
+	 * @param in
+	 *            {@link BoundedInputStream}
+	 * @param l
+	 *            length in bytes
+	 * @return {@link String}
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static String readString(final BoundedInputStream in,
+			final int l) throws IOException {
+		in.require(l);
+		byte[] b = new byte[l];
+		readFully(in, b, l);
+		return new String(b, UTF8);
+	}
+
+	/**
+	 * Read exactly l bytes.
+	 * 
+	 * @param in
+	 *            {@link InputStream}
+	 * @param b
+	 *            buffer
+	 * @param l
+	 *            number of bytes
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static void readFully(final InputStream in, final byte[] b,
+			final int l) throws IOException {
+		if (l > b.length) {
+			throw new IOException("invalid length: " + l);
+		}
+		int pos = 0;
+		while (pos < l) {
+			int r = in.read(b, pos, l - pos);
+			if (r < 0) {
+				throw new EOFException();
+			}
+			pos += r;
+		}
+	}
+
+	/**
+	 * Skip exactly l bytes.
+	 * 
+	 * @param in
+	 *            {@link InputStream}
+	 * @param l
+	 *            number of bytes
+	 * @throws IOException
+	 *             IOException
+	 */
+	private static void skipFully(final InputStream in, final int l)
+			throws IOException {
+		long left = l;
+		while (left > 0) {
+			long r = in.skip(left);
+			if (r <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				r = 1;
+			}
+			left -= r;
+		}
+	}
+
+	/**
+	 * {@link InputStream} reading no more than a known number of bytes.
+	 */
+	private static final class BoundedInputStream extends FilterInputStream {
+		/** Bytes left. */
+		private int left;
+
+		/**
+		 * Default constructor.
+		 * 
+		 * @param in
+		 *            {@link InputStream}
+		 * @param length
+		 *            number of bytes available from in
+		 */
+		BoundedInputStream(final InputStream in, final int length) {
+			super(in);
+			this.left = length;
+		}
+
+		/**
+		 * Check a length read from data.
+		 * 
+		 * @param l
+		 *            number of bytes needed
+		 * @throws IOException
+		 *             if less than l bytes are left
+		 */
+		void require(final int l) throws IOException {
+			if (l > this.left) {
+				throw new IOException("invalid length: " + l + ", only "
+						+ this.left + " bytes left");
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.left <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b >= 0) {
+				--this.left;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+				throws IOException {
+			if (this.left <= 0) {
+				return -1;
+			}
+			int r = super.read(b, off, Math.min(len, this.left));
+			if (r > 0) {
+				this.left -= r;
+			}
+			return r;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			long r = super.skip(Math.min(n, this.left));
+			if (r > 0) {
+				this.left -= r;
+			}
+			return r;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return Math.min(super.available(), this.left);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Vibrator;
+import android.preference.PreferenceManager;
+import de.ub0r.android.lib.Log;
+import de.ub0r.android.nfcprofile.data.AndroidPlatform;
+import de.ub0r.android.nfcprofile.data.ApplyEngine.OnAppliedListener;
+import de.ub0r.android.nfcprofile.data.KeyValueStore;
+import de.ub0r.android.nfcprofile.data.Platform;
+import de.ub0r.android.nfcprofile.data.PrefsStore;
+import de.ub0r.android.nfcprofile.data.Profile;
+import de.ub0r.android.nfcprofile.data.ProfileCache;
+import de.ub0r.android.nfcprofile.data.ProfilePlan;
+import de.ub0r.android.nfcprofile.data.ProfileStack;
+import de.ub0r.android.nfcprofile.data.TagProfile;
+import de.ub0r.android.nfcprofile.data.TapTracer;
+import de.ub0r.android.nfcprofile.ui.ProfileActivity;
+
+/**
+ * Handle touched NFC tags off the main thread. Started by NfcReaderActivity
+ * for each tap; stops itself when the last tap was applied.
+ * 
+ * Profiles are applied one after another. Repeated taps of the same tag
+ * within a short window are dropped. Consecutive taps arriving while a
+ * profile is applied are collapsed to the last one. Requests to set or reset
+ * a profile are never dropped.
+ * 
+ * @author flx
+ */
+public final class TapService extends Service implements Handler.Callback {
+	/** Tag for Logging. */
+	private static final String TAG = "TapService";
+
+	/** Extra: profile's key. */
+	public static final String EXTRA_KEY = "key";
+	/** Extra: {@link TagProfile}'s payload read from tag. */
+	public static final String EXTRA_PROFILE = "profile";
+	/** Extra: System.nanoTime() when the tap was received. */
+	public static final String EXTRA_TAP_START = "tap_start";
+	/** Extra: MODE_TAP, MODE_SET or MODE_RESET. */
+	private static final String EXTRA_MODE = "mode";
+
+	/** Mode: tag was touched. */
+	private static final int MODE_TAP = 0;
+	/** Mode: set profile from ProfileActivity. */
+	private static final int MODE_SET = 1;
+	/** Mode: reset profile from ProfileActivity. */
+	private static final int MODE_RESET = 2;
+
+	/** Preference's name: stack profiles instead of switching. */
+	public static final String PREF_STACK_PROFILES = "stack_profiles";
+	/** Preference's name: drop repeated taps within this many ms. */
+	public static final String PREF_TAP_WINDOW = "tap_window";
+	/** Default for PREF_TAP_WINDOW. */
+	private static final String DEFAULT_TAP_WINDOW = "1000";
+	/** Nanoseconds per millisecond. */
+	private static final long NANOS = 1000000L;
+
+	/** Message: handle the next request. */
+	private static final int MSG_TAP = 1;
+
+	/** Vibrate pattern: switch profile on. */
+	private static final long[] VIBRATE_ON = new long[] { 0L, 100L };
+	/** Vibrate pattern: switch profile off. */
+	private static final long[] VIBRATE_OFF = new long[] { 0L, 100L, 100L,
+			100L };
+
+	/** A tap waiting to be handled. */
+	private static final class TapRequest {
+		/** Profile's key. */
+		private final String key;
+		/** MODE_TAP, MODE_SET or MODE_RESET. */
+		private final int mode;
+		/** {@link TagProfile}'s payload, may be null. */
+		private final byte[] payload;
+		/** System.nanoTime() when the tap was received. */
+		private final long start;
+		/**
+		 * {@link TapTracer.Tap}, null unless a tag was touched. Set by the
+		 * handler thread.
+		 */
+		private TapTracer.Tap tap;
+		/** Start id passed to onStartCommand(). */
+		private final int startId;
+
+		/**
+		 * Default constructor.
+		 * 
+		 * @param k
+		 *            key
+		 * @param m
+		 *            mode
+		 * @param p
+		 *            {@link TagProfile}'s payload, may be null
+		 * @param s
+		 *            System.nanoTime() when the tap was received
+		 * @param id
+		 *            start id
+		 */
+		TapRequest(final String k, final int m, final byte[] p, final long s,
+				final int id) {
+			this.key = k;
+			this.mode = m;
+			this.payload = p;
+			this.start = s;
+			this.startId = id;
+		}
+	}
+
+	/** Number of repeated taps dropped. */
+	private static final AtomicInteger DROPPED = new AtomicInteger();
+	/** Number of taps replaced by a later one before being handled. */
+	private static final AtomicInteger COALESCED = new AtomicInteger();
+
+	/** Key of last tap, handler thread only. */
+	private static String lastKey = null;
+	/** System.nanoTime() of last tap, handler thread only. */
+	private static long lastTap = 0L;
+
+	/** Thread handling taps. */
+	private HandlerThread thread;
+	/** {@link Handler} running on thread. */
+	private Handler handler;
+	/** Requests to handle, in order. Guarded by itself. */
+	private final ArrayDeque<TapRequest> queue = new ArrayDeque<TapRequest>();
+
+	/**
+	 * Hand a tap to the {@link TapService}.
+	 * 
+	 * @param context
+	 *            {@link Context}
+	 * @param key
+	 *            profile's key
+	 * @param payload
+	 *            {@link TagProfile}'s payload read from tag, may be null
+	 * @param tapStart
+	 *            System.nanoTime() when the tap was received
+	 */
+	public static void tap(final Context context, final String key,
+			final byte[] payload, final long tapStart) {
+		Intent intent = new Intent(context, TapService.class);
+		intent.putExtra(EXTRA_KEY, key);
+		intent.putExtra(EXTRA_PROFILE, payload);
+		intent.putExtra(EXTRA_TAP_START, tapStart);
+		context.startService(intent);
+	}
+
+	/**
+	 * Set or reset a profile. Queued behind pending taps.
+	 * 
+	 * @param context
+	 *            {@link Context}
+	 * @param key
+	 *            profile's key
+	 * @param reset
+	 *            true to reset the profile
+	 */
+	public static void apply(final Context context, final String key,
+			final boolean reset) {
+		Intent intent = new Intent(context, TapService.class);
+		intent.putExtra(EXTRA_KEY, key);
+		intent.putExtra(EXTRA_MODE, reset ? MODE_RESET : MODE_SET);
+		context.startService(intent);
+	}
+
+	/**
+	 * @return number of repeated taps dropped
+	 */
+	public static int getDropped() {
+		return DROPPED.get();
+	}
+
+	/**
+	 * @return number of taps replaced by a later one before being handled
+	 */
+	public static int getCoalesced() {
+		return COALESCED.get();
+	}
+
+	/**
+	 * Reset counters.
+	 */
+	public static void clearCounters() {
+		DROPPED.set(0);
+		COALESCED.set(0);
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		this.thread = new HandlerThread(TAG);
+		this.thread.start();
+		this.handler = new Handler(this.thread.getLooper(), this);
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		this.thread.quit();
+	}
+
+	@Override
+	public IBinder onBind(final Intent intent) {
+		return null;
+	}
+
+	@Override
+	public int onStartCommand(final Intent intent, final int flags,
+			final int startId) {
+		String key = intent == null ? null : intent.getStringExtra(EXTRA_KEY);
+		if (key == null) {
+			this.stopSelf(startId);
+			return START_NOT_STICKY;
+		}
+		int mode = intent.getIntExtra(EXTRA_MODE, MODE_TAP);
+		long start = intent.getLongExtra(EXTRA_TAP_START, System.nanoTime());
+		TapRequest r = new TapRequest(key, mode,
+				intent.getByteArrayExtra(EXTRA_PROFILE), start, startId);
+		TapRequest prev = null;
+		synchronized (this.queue) {
+			TapRequest last = this.queue.peekLast();
+			if (mode == MODE_TAP && last != null && last.mode == MODE_TAP) {
+				prev = this.queue.pollLast();
+			}
+			this.queue.addLast(r);
+		}
+		if (prev == null) {
+			this.handler.sendEmptyMessage(MSG_TAP);
+		} else {
+			// still applying, only the last of consecutive taps counts
+			Log.d(TAG, "coalesce request: " + prev.key);
+			COALESCED.incrementAndGet();
+		}
+		return START_NOT_STICKY;
+	}
+
+	/**
+	 * Check if a tap repeats the last one within PREF_TAP_WINDOW. The window
+	 * restarts with each tap, a tag held to the device is handled once. Reads
+	 * preferences, call from the handler thread only.
+	 * 
+	 * @param key
+	 *            profile's key
+	 * @param start
+	 *            System.nanoTime() when the tap was received
+	 * @return true, if tap should be dropped
+	 */
+	private boolean isRepeated(final String key, final long start) {
+		String s = PreferenceManager.getDefaultSharedPreferences(this)
+				.getString(PREF_TAP_WINDOW, DEFAULT_TAP_WINDOW);
+		long window;
+		try {
+			window = Long.parseLong(s) * NANOS;
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "invalid tap window: " + s, e);
+			window = Long.parseLong(DEFAULT_TAP_WINDOW) * NANOS;
+		}
+		boolean repeated = key.equals(lastKey) && start - lastTap < window;
+		lastKey = key;
+		lastTap = start;
+		return repeated;
+	}
+
+	@Override
+	public boolean handleMessage(final Message msg) {
+		if (msg.what != MSG_TAP) {
+			return false;
+		}
+		TapRequest r;
+		synchronized (this.queue) {
+			r = this.queue.pollFirst();
+		}
+		if (r == null) {
+			return true;
+		}
+		if (r.mode == MODE_TAP) {
+			if (this.isRepeated(r.key, r.start)) {
+				Log.d(TAG, "drop repeated tap: " + r.key);
+				DROPPED.incrementAndGet();
+				this.stopSelf(r.startId);
+				return true;
+			}
+			r.tap = TapTracer.startTap(r.start);
+		}
+		TapTracer.received(r.tap);
+		long t = TapTracer.begin(TapTracer.STAGE_VALIDATED, null);
+		if (r.mode != MODE_TAP) {
+			// from ProfileActivity, key is known
+			TapTracer.end(r.tap, TapTracer.STAGE_VALIDATED, null, t);
+			await(this.invokeProfile(r, null));
+			return true;
+		}
+		if (!Profile.isWellFormedKey(r.key)) {
+			// not generated by us, nothing to insert
+			TapTracer.end(r.tap, TapTracer.STAGE_VALIDATED, null, t);
+			Log.w(TAG, "ignore malformed key");
+			this.stopSelf(r.startId);
+			return true;
+		}
+		TagProfile tp = this.readPayload(r);
+		boolean valid = tp != null || ProfileCache.contains(r.key)
+				|| Profile.isValidKey(AndroidPlatform.getInstance(this), r.key);
+		TapTracer.end(r.tap, TapTracer.STAGE_VALIDATED, null, t);
+		if (valid) {
+			// wait for it, snapshots of two applies must not interleave
+			await(this.invokeProfile(r, tp));
+		} else {
+			Intent intent = new Intent(this, ProfileActivity.class);
+			intent.putExtra(ProfileActivity.EXTRA_KEY, r.key);
+			intent.setAction(Intent.ACTION_INSERT);
+			intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+			this.startActivity(intent);
+			this.stopSelf(r.startId);
+		}
+		return true;
+	}
+
+	/**
+	 * Wait for an apply to finish.
+	 * 
+	 * @param f
+	 *            {@link Future}, may be null
+	 */
+	private static void await(final Future<?> f) {
+		if (f == null) {
+			return;
+		}
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Log.w(TAG, "interrupted while applying", e);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.e(TAG, "error applying profile", e);
+		}
+	}
+
+	/**
+	 * Decode a {@link TagProfile} read from tag.
+	 * 
+	 * @param r
+	 *            {@link TapRequest}
+	 * @return {@link TagProfile}, null if there is none
+	 */
+	private TagProfile readPayload(final TapRequest r) {
+		if (r.payload == null) {
+			return null;
+		}
+		try {
+			return TagProfile.fromBytes(r.payload);
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "invalid profile on tag: " + r.key, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Keep a {@link TagProfile} for later taps. Runs after pending plan saves
+	 * and leaves known profiles untouched.
+	 * 
+	 * @param key
+	 *            profile's key
+	 * @param tp
+	 *            {@link TagProfile}
+	 */
+	private void importProfile(final String key, final TagProfile tp) {
+		final Context ctx = this.getApplicationContext();
+		ProfilePlan.enqueue(new Runnable() {
+			@Override
+			public void run() {
+				if (Profile.importKey(AndroidPlatform.getInstance(ctx), key,
+						tp.getName(), tp.getPlan())) {
+					NfcProfileBackupAgent.requestBackup(ctx);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Invoke a profile or reset profile.
+	 * 
+	 * @param r
+	 *            {@link TapRequest}
+	 * @param tp
+	 *            {@link TagProfile} read from tag, used for unknown profiles
+	 *            only, may be null
+	 * @return {@link Future} finishing after feedback was given, null if
+	 *         there was nothing to do
+	 */
+	private Future<?> invokeProfile(final TapRequest r, final TagProfile tp) {
+		Log.i(TAG, "invokeProfile(" + r.key + ")");
+		final SharedPreferences p = PreferenceManager
+				.getDefaultSharedPreferences(this);
+		final Vibrator vibrator = (Vibrator) this
+				.getSystemService(VIBRATOR_SERVICE);
+		Platform platform = AndroidPlatform.getInstance(this);
+		ProfileStack stack = ProfileStack.getInstance(platform);
+		int i = stack.indexOf(r.key);
+		if (r.mode == MODE_RESET && i < 0) {
+			Log.i(TAG, "not active: " + r.key);
+			this.stopSelf(r.startId);
+			return null;
+		}
+		long t = TapTracer.begin(TapTracer.STAGE_LOADED, null);
+		Profile prof;
+		if (tp == null || Profile.isValidKey(platform, r.key)) {
+			// local changes win over the tag's copy
+			prof = ProfileCache.get(platform, r.key);
+		} else {
+			// unknown profile, settings come with the tag
+			prof = new Profile(tp.getPlan());
+			this.importProfile(r.key, tp);
+		}
+		TapTracer.end(r.tap, TapTracer.STAGE_LOADED, null, t);
+
+		OnAppliedListener on = new OnAppliedListener() {
+			@Override
+			public void onApplied(final int failed) {
+				TapService.this.feedback(p, vibrator, VIBRATE_ON, r);
+			}
+		};
+		// snapshots and stack go into a single write
+		KeyValueStore saved = new PrefsStore(p);
+		if (r.mode == MODE_RESET || (r.mode == MODE_TAP && i >= 0
+				&& p.getBoolean("reset_on_second_touch", true))) {
+			// drop profile's layer, reveals the layer below
+			Log.i(TAG, "remove profile: " + r.key);
+			return stack.remove(platform, i, saved, new OnAppliedListener() {
+				@Override
+				public void onApplied(final int failed) {
+					TapService.this.feedback(p, vibrator, VIBRATE_OFF, r);
+				}
+			}, r.tap);
+		}
+		if (r.mode == MODE_TAP) {
+			Profile.addRecentKey(saved, r.key);
+		}
+		if (i >= 0) {
+			// pick up changes to the profile
+			return stack.replace(platform, i, r.key, prof, saved, on, r.tap);
+		} else if (r.mode == MODE_SET || stack.size() == 0
+				|| p.getBoolean(PREF_STACK_PROFILES, false)) {
+			Log.i(TAG, "push profile: " + r.key);
+			return stack.push(platform, r.key, prof, saved, on, r.tap);
+		} else {
+			// switch top layer, apply difference only
+			Log.i(TAG, "switch profile: " + r.key);
+			return stack.replace(platform, stack.size() - 1, r.key, prof,
+					saved, on, r.tap);
+		}
+	}
+
+	/**
+	 * Vibrate if enabled and a tag was touched, finish tracing the tap and
+	 * stop unless more taps arrived meanwhile.
+	 * 
+	 * @param p
+	 *            default {@link SharedPreferences}
+	 * @param vibrator
+	 *            {@link Vibrator}
+	 * @param pattern
+	 *            vibrate pattern
+	 * @param r
+	 *            {@link TapRequest}
+	 */
+	private void feedback(final SharedPreferences p, final Vibrator vibrator,
+			final long[] pattern, final TapRequest r) {
+		long t = TapTracer.begin(TapTracer.STAGE_FEEDBACK, null);
+		if (r.mode == MODE_TAP && p.getBoolean("vibrate", true)) {
+			vibrator.vibrate(pattern, -1);
+		}
+		TapTracer.end(r.tap, TapTracer.STAGE_FEEDBACK, null, t);
+		TapTracer.finish(r.tap);
+		// profile stack and recent keys changed
+		NfcProfileBackupAgent.requestBackup(this);
+		this.stopSelf(r.startId);
+	}
+}
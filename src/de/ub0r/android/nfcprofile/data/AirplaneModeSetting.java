@@ -18,16 +18,6 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import android.content.ContentResolver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.preference.PreferenceManager;
-import android.provider.Settings;
-import android.text.TextUtils;
-import de.ub0r.android.lib.Log;
-
 /**
  * {@link Setting} switching airplane mode.
  * 
@@ -37,14 +27,14 @@ public final class AirplaneModeSetting extends Setting {
 	/** Tag for Logging. */
 	private static final String TAG = AirplaneModeSetting.class.getSimpleName();
 
+	/** Deadline: switching radios may take a while. */
+	private static final long DEADLINE = 5000L;
+
 	/** Reset state: airplane mode. */
 	private static final String RESET_MODE = "mode";
 	/** Reset state: airplane radios. */
 	private static final String RESET_RADIOS = "radios";
 
-	/** Desired state. */
-	private Boolean desiredState;
-
 	/**
 	 * Default constructor.
 	 */
@@ -53,88 +43,88 @@ public final class AirplaneModeSetting extends Setting {
 	}
 
 	@Override
-	public void load(final SharedPreferences p) {
-		String s = p.getString(this.getName(), null);
-		if (s != null && s.equals(ACTIVATE)) {
-			this.desiredState = true;
-		} else if (s != null && s.equals(DEACTIVATE)) {
-			this.desiredState = false;
-		} else {
-			this.desiredState = null;
+	protected int parse(final String s) {
+		if (s.equals(ACTIVATE)) {
+			return 1;
+		} else if (s.equals(DEACTIVATE)) {
+			return 0;
 		}
+		throw new IllegalArgumentException("unknown state: " + s);
 	}
 
 	@Override
-	public void set(final Context context) {
+	protected String format(final int state) {
+		return state == 1 ? ACTIVATE : DEACTIVATE;
+	}
+
+	@Override
+	long getDeadline() {
+		return DEADLINE;
+	}
+
+	@Override
+	public void set(final Platform platform, final KeyValueStore saved) {
+		if (!this.isTouched()) {
+			Log.d(TAG, "ignore unchanged");
+			return;
+		}
 		// save current settings
-		ContentResolver cr = context.getContentResolver();
-		Editor e = PreferenceManager.getDefaultSharedPreferences(context)
-				.edit();
-		e.putInt(this.getResetKey(RESET_MODE),
-				Settings.System.getInt(cr, Settings.System.AIRPLANE_MODE_ON, 0));
-		e.putString(this.getResetKey(RESET_RADIOS), Settings.System.getString(
-				cr, Settings.System.AIRPLANE_MODE_RADIOS));
-		e.apply();
+		SystemSettingsPort settings = platform.getSystemSettings();
+		String radios = settings
+				.getString(SystemSettingsPort.AIRPLANE_MODE_RADIOS);
+		saved.putInt(this.getResetKey(RESET_MODE),
+				settings.getInt(SystemSettingsPort.AIRPLANE_MODE_ON, 0));
+		saved.putString(this.getResetKey(RESET_RADIOS), radios);
 
 		// set to desired state
-		if (this.desiredState != null) {
-			this.setAirplaneMode(context, this.desiredState);
-		}
+		this.setAirplaneMode(platform, this.getDesiredState() == 1, radios);
 	}
 
 	@Override
-	public void reset(final Context context) {
-		if (this.desiredState != null) {
-			SharedPreferences p = PreferenceManager
-					.getDefaultSharedPreferences(context);
-			this.setAirplaneMode(context,
-					p.getInt(this.getResetKey(RESET_MODE), 0) == 1);
+	public void reset(final Platform platform, final KeyValueStore saved) {
+		if (this.isTouched()) {
+			this.setAirplaneMode(platform,
+					saved.getInt(this.getResetKey(RESET_MODE), 0) == 1,
+					saved.getString(this.getResetKey(RESET_RADIOS), null));
 		}
 	}
 
 	/**
 	 * Set airplane mode.
 	 * 
-	 * @param context
-	 *            {@link Context}
+	 * @param platform
+	 *            {@link Platform}
 	 * @param turnOff
 	 *            true to turn on airplane mode
+	 * @param radios
+	 *            radios to restore when turning off airplane mode
 	 */
-	private void setAirplaneMode(final Context context, final boolean turnOff) {
-		Log.d(TAG, "setAirplaneMode(ctx, " + turnOff + ")");
-		ContentResolver cr = context.getContentResolver();
-		SharedPreferences p = PreferenceManager
-				.getDefaultSharedPreferences(context);
-		int current = Settings.System.getInt(cr,
-				Settings.System.AIRPLANE_MODE_ON, 0);
+	private void setAirplaneMode(final Platform platform,
+			final boolean turnOff, final String radios) {
+		Log.d(TAG, "setAirplaneMode(platform, " + turnOff + ")");
+		SystemSettingsPort settings = platform.getSystemSettings();
+		int current = settings.getInt(SystemSettingsPort.AIRPLANE_MODE_ON, 0);
 
 		if (current == 0 && turnOff || current == 1 && !turnOff) {
+			String s = settings
+					.getString(SystemSettingsPort.AIRPLANE_MODE_RADIOS);
+			String r;
 			if (turnOff) {
-				String s = Settings.System.getString(cr,
-						Settings.System.AIRPLANE_MODE_RADIOS);
-				if (!TextUtils.isEmpty(s)
-						&& s.contains(Settings.System.RADIO_NFC)) {
-					s = s.replace(Settings.System.RADIO_NFC, "").replace(",,",
-							",");
+				r = s;
+				if (r != null && r.contains(SystemSettingsPort.RADIO_NFC)) {
+					r = r.replace(SystemSettingsPort.RADIO_NFC, "").replace(
+							",,", ",");
 				}
-				Log.d(TAG, "set " + Settings.System.AIRPLANE_MODE_RADIOS + "="
-						+ s);
-				Settings.System.putString(cr,
-						Settings.System.AIRPLANE_MODE_RADIOS, s);
 			} else {
-				String s = p.getString(this.getResetKey(RESET_RADIOS), null);
-				Log.d(TAG, "set " + Settings.System.AIRPLANE_MODE_RADIOS + "="
-						+ s);
-				if (s != null) {
-					Settings.System.putString(cr,
-							Settings.System.AIRPLANE_MODE_RADIOS, s);
-				}
+				r = radios;
+			}
+			if (r != null && !r.equals(s)) {
+				Log.d(TAG, "set " + SystemSettingsPort.AIRPLANE_MODE_RADIOS
+						+ "=" + r);
+				settings.putString(SystemSettingsPort.AIRPLANE_MODE_RADIOS, r);
 			}
-			Settings.System.putInt(cr, Settings.System.AIRPLANE_MODE_ON,
-					1 - current);
-			Intent intent = new Intent(Intent.ACTION_AIRPLANE_MODE_CHANGED);
-			intent.putExtra("state", turnOff);
-			context.sendBroadcast(intent);
+			settings.putInt(SystemSettingsPort.AIRPLANE_MODE_ON, 1 - current);
+			platform.getBroadcasts().sendAirplaneModeChanged(turnOff);
 		}
 	}
 }
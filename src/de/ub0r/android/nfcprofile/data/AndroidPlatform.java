@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.File;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.media.AudioManager;
+import android.preference.PreferenceManager;
+import android.provider.Settings;
+
+/**
+ * {@link Platform} backed by a {@link Context}.
+ * 
+ * @author flx
+ */
+public final class AndroidPlatform implements Platform, SystemSettingsPort,
+		AudioPort, BroadcastPort {
+	/** Single instance. */
+	private static AndroidPlatform instance = null;
+
+	/** {@link Context}. */
+	private final Context context;
+	/** {@link ContentResolver}. */
+	private final ContentResolver cr;
+	/** {@link AudioManager}. */
+	private final AudioManager amgr;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param ctx
+	 *            {@link Context}
+	 */
+	private AndroidPlatform(final Context ctx) {
+		this.context = ctx;
+		this.cr = ctx.getContentResolver();
+		this.amgr = (AudioManager) ctx.getSystemService(Context.AUDIO_SERVICE);
+	}
+
+	/**
+	 * Get the {@link AndroidPlatform}.
+	 * 
+	 * @param context
+	 *            {@link Context}
+	 * @return {@link AndroidPlatform} bound to the application's
+	 *         {@link Context}
+	 */
+	public static synchronized AndroidPlatform getInstance(
+			final Context context) {
+		if (instance == null) {
+			instance = new AndroidPlatform(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	@Override
+	public SystemSettingsPort getSystemSettings() {
+		return this;
+	}
+
+	@Override
+	public AudioPort getAudio() {
+		return this;
+	}
+
+	@Override
+	public BroadcastPort getBroadcasts() {
+		return this;
+	}
+
+	@Override
+	public KeyValueStore getPreferences(final String name) {
+		if (name == null) {
+			return new PrefsStore(
+					PreferenceManager.getDefaultSharedPreferences(this.context));
+		}
+		return new PrefsStore(this.context.getSharedPreferences(name,
+				Context.MODE_PRIVATE));
+	}
+
+	@Override
+	public File getDir(final String name) {
+		return this.context.getDir(name, Context.MODE_PRIVATE);
+	}
+
+	@Override
+	public int getInt(final String name, final int def) {
+		return Settings.System.getInt(this.cr, name, def);
+	}
+
+	@Override
+	public String getString(final String name) {
+		return Settings.System.getString(this.cr, name);
+	}
+
+	@Override
+	public boolean putInt(final String name, final int value) {
+		return Settings.System.putInt(this.cr, name, value);
+	}
+
+	@Override
+	public boolean putString(final String name, final String value) {
+		return Settings.System.putString(this.cr, name, value);
+	}
+
+	@Override
+	public int getRingerMode() {
+		return this.amgr.getRingerMode();
+	}
+
+	@Override
+	public void setRingerMode(final int mode) {
+		this.amgr.setRingerMode(mode);
+	}
+
+	@Override
+	public int getVibrateSetting(final int type) {
+		return this.amgr.getVibrateSetting(type);
+	}
+
+	@Override
+	public void setVibrateSetting(final int type, final int setting) {
+		this.amgr.setVibrateSetting(type, setting);
+	}
+
+	@Override
+	public void sendAirplaneModeChanged(final boolean state) {
+		Intent intent = new Intent(Intent.ACTION_AIRPLANE_MODE_CHANGED);
+		intent.putExtra("state", state);
+		this.context.sendBroadcast(intent);
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Apply {@link Profile}s off the caller's thread. {@link Setting}s of
+ * different lanes run in parallel, {@link Setting}s sharing a lane run one
+ * after another in {@link Profile}'s order.
+ * 
+ * @author flx
+ */
+public final class ApplyEngine {
+	/** Tag for Logging. */
+	private static final String TAG = "ApplyEngine";
+
+	/**
+	 * Listener called after a {@link Profile} was applied.
+	 */
+	public interface OnAppliedListener {
+		/**
+		 * Called from a background thread after all {@link Setting}s were
+		 * applied and the saved state was written.
+		 * 
+		 * @param failed
+		 *            number of {@link Setting}s which failed or missed their
+		 *            deadline
+		 */
+		void onApplied(final int failed);
+	}
+
+	/** Step: save current state and set desired state. */
+	static final int STEP_SET = 0;
+	/** Step: reset to saved state. */
+	static final int STEP_RESET = 1;
+	/** Step: set desired state, keep saved state. */
+	static final int STEP_SWITCH = 2;
+
+	/** Thread running the coordinating tasks. */
+	private static final ExecutorService COORDINATOR = Executors
+			.newSingleThreadExecutor(new NamedThreadFactory("apply"));
+	/** One thread per lane. */
+	private static final ExecutorService[] LANES = createLanes();
+
+	/**
+	 * No instances.
+	 */
+	private ApplyEngine() {
+		// nothing to do
+	}
+
+	/**
+	 * @return one single threaded {@link ExecutorService} per lane
+	 */
+	private static ExecutorService[] createLanes() {
+		ExecutorService[] ret = new ExecutorService[Setting.LANES];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+					"apply-lane-" + i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Set or reset a {@link Profile} in background.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param profile
+	 *            {@link Profile}
+	 * @param reset
+	 *            true to reset the {@link Profile}
+	 * @param saved
+	 *            {@link KeyValueStore} holding the saved state, applied when
+	 *            done
+	 * @param l
+	 *            {@link OnAppliedListener}, may be null
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return {@link Future} finishing after l was called
+	 */
+	public static Future<?> apply(final Platform platform,
+			final Profile profile, final boolean reset,
+			final KeyValueStore saved, final OnAppliedListener l,
+			final TapTracer.Tap tap) {
+		List<Setting> settings = profile.getSettings();
+		int[] steps = new int[settings.size()];
+		Arrays.fill(steps, reset ? STEP_RESET : STEP_SET);
+		return run(platform, settings, steps, saved, l, tap);
+	}
+
+	/**
+	 * Run {@link Setting}s in background.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param settings
+	 *            {@link Setting}s
+	 * @param steps
+	 *            STEP_* per {@link Setting}
+	 * @param saved
+	 *            {@link KeyValueStore} holding the saved state, applied when
+	 *            done
+	 * @param l
+	 *            {@link OnAppliedListener}, may be null
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return {@link Future} finishing after l was called
+	 */
+	static Future<?> run(final Platform platform,
+			final List<Setting> settings, final int[] steps,
+			final KeyValueStore saved, final OnAppliedListener l,
+			final TapTracer.Tap tap) {
+		return COORDINATOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				int failed = runSettings(platform, settings, steps, saved,
+						tap);
+				long start = TapTracer.begin(TapTracer.STAGE_PERSISTED, null);
+				saved.apply();
+				TapTracer.end(tap, TapTracer.STAGE_PERSISTED, null, start);
+				if (l != null) {
+					l.onApplied(failed);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run all {@link Setting}s in their lanes and wait for them.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param settings
+	 *            {@link Setting}s
+	 * @param steps
+	 *            STEP_* per {@link Setting}
+	 * @param saved
+	 *            {@link KeyValueStore} holding the saved state, gets the
+	 *            writes of {@link Setting}s finished in time
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return number of failed {@link Setting}s
+	 */
+	private static int runSettings(final Platform platform,
+			final List<Setting> settings, final int[] steps,
+			final KeyValueStore saved, final TapTracer.Tap tap) {
+		final KeyValueStore baseline = new BaselineStore(saved);
+		long start = System.currentTimeMillis();
+		int l = settings.size();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(l);
+		// a setting missing its deadline may still write, keep it apart
+		BufferedStore[] buffers = new BufferedStore[l];
+		long[] deadlines = new long[l];
+		long[] laneDeadlines = new long[LANES.length];
+		for (int i = 0; i < l; i++) {
+			final Setting s = settings.get(i);
+			final int step = steps[i];
+			final KeyValueStore store;
+			if (step == STEP_SWITCH) {
+				store = baseline;
+			} else {
+				buffers[i] = new BufferedStore(saved);
+				store = buffers[i];
+			}
+			int lane = s.getLane();
+			// a setting may wait for all its predecessors in the same lane
+			laneDeadlines[lane] += s.getDeadline();
+			deadlines[i] = start + laneDeadlines[lane];
+			futures.add(LANES[lane].submit(new Runnable() {
+				@Override
+				public void run() {
+					long t = TapTracer.begin(TapTracer.STAGE_SETTING,
+							s.getName());
+					try {
+						if (step == STEP_RESET) {
+							s.reset(platform, store);
+						} else {
+							s.set(platform, store);
+						}
+					} finally {
+						TapTracer.end(tap, TapTracer.STAGE_SETTING,
+								s.getName(), t);
+					}
+				}
+			}));
+		}
+
+		int failed = 0;
+		for (int i = 0; i < l; i++) {
+			Future<?> f = futures.get(i);
+			long timeout = Math.max(0L,
+					deadlines[i] - System.currentTimeMillis());
+			boolean done = false;
+			try {
+				f.get(timeout, TimeUnit.MILLISECONDS);
+				done = true;
+			} catch (TimeoutException ex) {
+				Log.e(TAG, "deadline missed: " + settings.get(i).getName());
+				f.cancel(true);
+				++failed;
+			} catch (ExecutionException ex) {
+				Log.e(TAG, "failed: " + settings.get(i).getName(),
+						ex.getCause());
+				done = true;
+				++failed;
+			} catch (InterruptedException ex) {
+				Log.e(TAG, "interrupted", ex);
+				Thread.currentThread().interrupt();
+				++failed;
+			}
+			if (done && buffers[i] != null) {
+				// setting has finished, no more writes
+				buffers[i].flush();
+			}
+		}
+		Log.d(TAG, "applied " + l + " settings in "
+				+ (System.currentTimeMillis() - start) + "ms, failed: "
+				+ failed);
+		return failed;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+/**
+ * Port to ringer and vibrate settings as provided by AudioManager. Constants
+ * have the values of their counterparts in AudioManager.
+ * 
+ * @author flx
+ */
+public interface AudioPort {
+	/** Ringer mode: silent. */
+	int RINGER_MODE_SILENT = 0;
+	/** Ringer mode: vibrate. */
+	int RINGER_MODE_VIBRATE = 1;
+	/** Ringer mode: normal. */
+	int RINGER_MODE_NORMAL = 2;
+
+	/** Vibrate type: ringer. */
+	int VIBRATE_TYPE_RINGER = 0;
+	/** Vibrate type: notification. */
+	int VIBRATE_TYPE_NOTIFICATION = 1;
+
+	/** Vibrate setting: off. */
+	int VIBRATE_SETTING_OFF = 0;
+	/** Vibrate setting: on. */
+	int VIBRATE_SETTING_ON = 1;
+	/** Vibrate setting: only when silent. */
+	int VIBRATE_SETTING_ONLY_SILENT = 2;
+
+	/**
+	 * @return RINGER_MODE_*
+	 */
+	int getRingerMode();
+
+	/**
+	 * @param mode
+	 *            RINGER_MODE_*
+	 */
+	void setRingerMode(final int mode);
+
+	/**
+	 * @param type
+	 *            VIBRATE_TYPE_*
+	 * @return VIBRATE_SETTING_*
+	 */
+	int getVibrateSetting(final int type);
+
+	/**
+	 * @param type
+	 *            VIBRATE_TYPE_*
+	 * @param setting
+	 *            VIBRATE_SETTING_*
+	 */
+	void setVibrateSetting(final int type, final int setting);
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.Map;
+
+/**
+ * {@link KeyValueStore} keeping the saved state of another
+ * {@link KeyValueStore}: values are read from it, writes are dropped. Used
+ * for {@link Setting}s switched from one {@link Profile} to the next, so
+ * their reset still goes back to the state before the first one.
+ * 
+ * @author flx
+ */
+final class BaselineStore implements KeyValueStore {
+	/** {@link KeyValueStore} holding the baseline. */
+	private final KeyValueStore saved;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param s
+	 *            {@link KeyValueStore} holding the baseline
+	 */
+	BaselineStore(final KeyValueStore s) {
+		this.saved = s;
+	}
+
+	@Override
+	public int getInt(final String key, final int def) {
+		return this.saved.getInt(key, def);
+	}
+
+	@Override
+	public String getString(final String key, final String def) {
+		return this.saved.getString(key, def);
+	}
+
+	@Override
+	public Map<String, ?> getAll() {
+		return this.saved.getAll();
+	}
+
+	@Override
+	public void putInt(final String key, final int value) {
+		// keep baseline
+	}
+
+	@Override
+	public void putString(final String key, final String value) {
+		// keep baseline
+	}
+
+	@Override
+	public void remove(final String key) {
+		// keep baseline
+	}
+
+	@Override
+	public void apply() {
+		// nothing was written
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+/**
+ * Port for announcing changed system state to other apps.
+ * 
+ * @author flx
+ */
+public interface BroadcastPort {
+	/**
+	 * Announce a switched airplane mode.
+	 * 
+	 * @param state
+	 *            true, if airplane mode is on
+	 */
+	void sendAirplaneModeChanged(final boolean state);
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link KeyValueStore} collecting the writes of a single {@link Setting}
+ * before they go to the shared saved state. Reads see the collected values
+ * first, then the saved state. Writes of a {@link Setting} missing its
+ * deadline are simply never flushed.
+ * 
+ * @author flx
+ */
+final class BufferedStore implements KeyValueStore {
+	/** Marker for removed keys. */
+	private static final Object REMOVED = new Object();
+
+	/** {@link KeyValueStore} holding the saved state. */
+	private final KeyValueStore saved;
+	/** Collected writes in order. */
+	private final Map<String, Object> writes = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param s
+	 *            {@link KeyValueStore} holding the saved state
+	 */
+	BufferedStore(final KeyValueStore s) {
+		this.saved = s;
+	}
+
+	@Override
+	public synchronized int getInt(final String key, final int def) {
+		Object o = this.writes.get(key);
+		if (o == null) {
+			return this.saved.getInt(key, def);
+		}
+		return o == REMOVED ? def : (Integer) o;
+	}
+
+	@Override
+	public synchronized String getString(final String key, final String def) {
+		Object o = this.writes.get(key);
+		if (o == null) {
+			return this.saved.getString(key, def);
+		}
+		return o == REMOVED ? def : (String) o;
+	}
+
+	@Override
+	public synchronized Map<String, ?> getAll() {
+		HashMap<String, Object> ret = new HashMap<String, Object>(
+				this.saved.getAll());
+		for (Map.Entry<String, Object> e : this.writes.entrySet()) {
+			if (e.getValue() == REMOVED) {
+				ret.remove(e.getKey());
+			} else {
+				ret.put(e.getKey(), e.getValue());
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized void putInt(final String key, final int value) {
+		this.writes.put(key, value);
+	}
+
+	@Override
+	public synchronized void putString(final String key, final String value) {
+		this.writes.put(key, value == null ? REMOVED : value);
+	}
+
+	@Override
+	public synchronized void remove(final String key) {
+		this.writes.put(key, REMOVED);
+	}
+
+	@Override
+	public void apply() {
+		// collected writes are passed on by flush()
+	}
+
+	/**
+	 * Pass collected writes on to the saved state, without applying it.
+	 */
+	synchronized void flush() {
+		for (Map.Entry<String, Object> e : this.writes.entrySet()) {
+			Object o = e.getValue();
+			if (o == REMOVED) {
+				this.saved.remove(e.getKey());
+			} else if (o instanceof Integer) {
+				this.saved.putInt(e.getKey(), (Integer) o);
+			} else {
+				this.saved.putString(e.getKey(), (String) o);
+			}
+		}
+		this.writes.clear();
+	}
+}
@@ -16,9 +16,6 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-
 /**
  * A setting.
  * 
@@ -26,26 +23,31 @@ import android.content.SharedPreferences;
  */
 public interface ISetable {
 	/**
-	 * Load {@link Setting} from {@link SharedPreferences}.
+	 * Load {@link Setting} from a profile's {@link KeyValueStore}.
 	 * 
 	 * @param p
-	 *            {@link SharedPreferences}
+	 *            {@link KeyValueStore}
 	 */
-	void load(final SharedPreferences p);
+	void load(final KeyValueStore p);
 
 	/**
 	 * Set {@link Setting} and save current state.
 	 * 
-	 * @param context
-	 *            {@link Context}
+	 * @param platform
+	 *            {@link Platform}
+	 * @param saved
+	 *            {@link KeyValueStore} to save current state to; applied by
+	 *            the caller
 	 */
-	void set(final Context context);
+	void set(final Platform platform, final KeyValueStore saved);
 
 	/**
 	 * Reset {@link Setting} to previously saved state.
 	 * 
-	 * @param context
-	 *            {@link Context}
+	 * @param platform
+	 *            {@link Platform}
+	 * @param saved
+	 *            {@link KeyValueStore} holding the saved state
 	 */
-	void reset(final Context context);
+	void reset(final Platform platform, final KeyValueStore saved);
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.Map;
+
+/**
+ * Port to a key value store like the one holding a {@link Setting}'s state
+ * saved for reset. Reads see the persisted values; writes are collected
+ * until apply().
+ * 
+ * @author flx
+ */
+public interface KeyValueStore {
+	/**
+	 * @param key
+	 *            key
+	 * @param def
+	 *            default value
+	 * @return stored value, def if not found
+	 */
+	int getInt(final String key, final int def);
+
+	/**
+	 * @param key
+	 *            key
+	 * @param def
+	 *            default value
+	 * @return stored value, def if not found
+	 */
+	String getString(final String key, final String def);
+
+	/**
+	 * @return all stored values by key
+	 */
+	Map<String, ?> getAll();
+
+	/**
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	void putInt(final String key, final int value);
+
+	/**
+	 * @param key
+	 *            key
+	 * @param value
+	 *            value
+	 */
+	void putString(final String key, final String value);
+
+	/**
+	 * @param key
+	 *            key
+	 */
+	void remove(final String key);
+
+	/**
+	 * Persist all put values.
+	 */
+	void apply();
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+/**
+ * Logging for the data package. Messages go to a {@link Sink} set by the
+ * app, so this package does not depend on the Android framework. Without a
+ * {@link Sink}, warnings and errors are printed to System.err.
+ * 
+ * @author flx
+ */
+public final class Log {
+	/**
+	 * Receiver of log messages.
+	 */
+	public interface Sink {
+		/**
+		 * @param tag
+		 *            tag
+		 * @param msg
+		 *            message
+		 */
+		void d(final String tag, final String msg);
+
+		/**
+		 * @param tag
+		 *            tag
+		 * @param msg
+		 *            message
+		 */
+		void i(final String tag, final String msg);
+
+		/**
+		 * @param tag
+		 *            tag
+		 * @param msg
+		 *            message
+		 * @param t
+		 *            {@link Throwable}, may be null
+		 */
+		void w(final String tag, final String msg, final Throwable t);
+
+		/**
+		 * @param tag
+		 *            tag
+		 * @param msg
+		 *            message
+		 * @param t
+		 *            {@link Throwable}, may be null
+		 */
+		void e(final String tag, final String msg, final Throwable t);
+	}
+
+	/** Current {@link Sink}, null to print warnings and errors only. */
+	private static volatile Sink sink = null;
+
+	/**
+	 * No instances.
+	 */
+	private Log() {
+		// nothing to do
+	}
+
+	/**
+	 * @param s
+	 *            {@link Sink}, null to print warnings and errors only
+	 */
+	public static void setSink(final Sink s) {
+		sink = s;
+	}
+
+	/**
+	 * Log a debug message.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param msg
+	 *            message
+	 */
+	static void d(final String tag, final String msg) {
+		Sink s = sink;
+		if (s != null) {
+			s.d(tag, msg);
+		}
+	}
+
+	/**
+	 * Log an info message.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param msg
+	 *            message
+	 */
+	static void i(final String tag, final String msg) {
+		Sink s = sink;
+		if (s != null) {
+			s.i(tag, msg);
+		}
+	}
+
+	/**
+	 * Log a warning.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param msg
+	 *            message
+	 */
+	static void w(final String tag, final String msg) {
+		w(tag, msg, null);
+	}
+
+	/**
+	 * Log a warning.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param msg
+	 *            message
+	 * @param t
+	 *            {@link Throwable}, may be null
+	 */
+	static void w(final String tag, final String msg, final Throwable t) {
+		Sink s = sink;
+		if (s != null) {
+			s.w(tag, msg, t);
+		} else {
+			print("W/" + tag + ": " + msg, t);
+		}
+	}
+
+	/**
+	 * Log an error.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param msg
+	 *            message
+	 */
+	static void e(final String tag, final String msg) {
+		e(tag, msg, null);
+	}
+
+	/**
+	 * Log an error.
+	 * 
+	 * @param tag
+	 *            tag
+	 * @param msg
+	 *            message
+	 * @param t
+	 *            {@link Throwable}, may be null
+	 */
+	static void e(final String tag, final String msg, final Throwable t) {
+		Sink s = sink;
+		if (s != null) {
+			s.e(tag, msg, t);
+		} else {
+			print("E/" + tag + ": " + msg, t);
+		}
+	}
+
+	/**
+	 * Print a message to System.err.
+	 * 
+	 * @param msg
+	 *            message
+	 * @param t
+	 *            {@link Throwable}, may be null
+	 */
+	private static void print(final String msg, final Throwable t) {
+		System.err.println(msg);
+		if (t != null) {
+			t.printStackTrace();
+		}
+	}
+}
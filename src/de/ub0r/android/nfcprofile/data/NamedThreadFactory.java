@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link ThreadFactory} naming its daemon threads, so they can be told
+ * apart in traces and thread dumps.
+ * 
+ * @author flx
+ */
+public final class NamedThreadFactory implements ThreadFactory {
+	/** Thread's name. */
+	private final String name;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param n
+	 *            thread's name
+	 */
+	public NamedThreadFactory(final String n) {
+		this.name = n;
+	}
+
+	@Override
+	public Thread newThread(final Runnable r) {
+		Thread t = new Thread(r, this.name);
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.File;
+
+/**
+ * The platform {@link Setting}s are applied to and {@link Profile}s are
+ * stored on.
+ * 
+ * @author flx
+ */
+public interface Platform {
+	/**
+	 * @return {@link SystemSettingsPort}
+	 */
+	SystemSettingsPort getSystemSettings();
+
+	/**
+	 * @return {@link AudioPort}
+	 */
+	AudioPort getAudio();
+
+	/**
+	 * @return {@link BroadcastPort}
+	 */
+	BroadcastPort getBroadcasts();
+
+	/**
+	 * Open a named {@link KeyValueStore}. Each call returns a new
+	 * {@link KeyValueStore} collecting its own writes.
+	 * 
+	 * @param name
+	 *            store's name, null for the app's default store
+	 * @return {@link KeyValueStore}
+	 */
+	KeyValueStore getPreferences(final String name);
+
+	/**
+	 * @param name
+	 *            directory's name
+	 * @return private directory, created if needed
+	 */
+	File getDir(final String name);
+}
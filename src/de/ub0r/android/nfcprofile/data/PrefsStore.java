@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.Map;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+
+/**
+ * {@link KeyValueStore} backed by {@link SharedPreferences}. Values are read
+ * from the {@link SharedPreferences} and written to an {@link Editor}, which
+ * is created on first write unless one is passed in.
+ * 
+ * @author flx
+ */
+public final class PrefsStore implements KeyValueStore {
+	/** {@link SharedPreferences} to read from, may be null. */
+	private final SharedPreferences prefs;
+	/** {@link Editor} to write to, null until first write. */
+	private Editor editor;
+
+	/**
+	 * Create a store reading from and writing to {@link SharedPreferences}.
+	 * 
+	 * @param p
+	 *            {@link SharedPreferences}
+	 */
+	public PrefsStore(final SharedPreferences p) {
+		this(p, null);
+	}
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param p
+	 *            {@link SharedPreferences}, null if nothing is read
+	 * @param e
+	 *            {@link Editor} of p, null to create one on first write
+	 */
+	public PrefsStore(final SharedPreferences p, final Editor e) {
+		this.prefs = p;
+		this.editor = e;
+	}
+
+	/**
+	 * @return {@link Editor} collecting writes
+	 */
+	private synchronized Editor edit() {
+		if (this.editor == null) {
+			this.editor = this.prefs.edit();
+		}
+		return this.editor;
+	}
+
+	@Override
+	public int getInt(final String key, final int def) {
+		return this.prefs.getInt(key, def);
+	}
+
+	@Override
+	public String getString(final String key, final String def) {
+		return this.prefs.getString(key, def);
+	}
+
+	@Override
+	public Map<String, ?> getAll() {
+		return this.prefs.getAll();
+	}
+
+	@Override
+	public void putInt(final String key, final int value) {
+		this.edit().putInt(key, value);
+	}
+
+	@Override
+	public void putString(final String key, final String value) {
+		this.edit().putString(key, value);
+	}
+
+	@Override
+	public void remove(final String key) {
+		this.edit().remove(key);
+	}
+
+	@Override
+	public synchronized void apply() {
+		if (this.editor != null) {
+			this.editor.apply();
+			if (this.prefs != null) {
+				// next write starts a new transaction
+				this.editor = null;
+			}
+		}
+	}
+}
@@ -18,16 +18,12 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
-import de.ub0r.android.lib.Log;
-import de.ub0r.android.lib.Utils;
-
 /**
  * A set of {@link Setting}s.
  * 
@@ -41,35 +37,73 @@ public final class Profile implements ISetable {
 	/** Preference's name: current profile. */
 	public static final String CURRENT_PROFILE = "current_profile";
 
-	/** Preference's name: valid keys. */
+	/** Preference's name: valid keys, used by older versions. */
 	private static final String PREF_VALIDKEYS = "valid_keys";
 	/** Separate keys with this. */
 	private static final String SEPARATOR = " ##§## ";
+	/** Preference's name: recently used keys, most recent first. */
+	private static final String PREF_RECENT = "recent_profiles";
+	/** Max number of recently used keys. */
+	private static final int MAX_RECENT = 4;
+	/** Max length of a key: a MD5 sum in hex. */
+	private static final int MAX_KEY_LENGTH = 32;
+	/** Radix of keys. */
+	private static final int HEX = 16;
+	/** Mask for a single byte. */
+	private static final int BYTE = 0xff;
 
 	/** Internal List of {@link Setting}s. */
 	private final ArrayList<Setting> settings;
 
+	/** Number of {@link Setting}s per {@link Profile}. */
+	static final int SETTINGS = 6;
+
 	/**
 	 * Create and load {@link Profile}.
 	 * 
 	 * @param p
-	 *            {@link SharedPreferences}
+	 *            profile's {@link KeyValueStore}
 	 */
-	public Profile(final SharedPreferences p) {
+	public Profile(final KeyValueStore p) {
 		Log.d(TAG, "new Profile(" + p.getString("name", null) + ")");
-		ArrayList<Setting> s = new ArrayList<Setting>(p.getAll().size());
+		this.settings = createSettings();
+		this.load(p);
+	}
+
+	/**
+	 * Create {@link Profile} from its compiled form.
+	 * 
+	 * @param plan
+	 *            {@link ProfilePlan}
+	 */
+	public Profile(final ProfilePlan plan) {
+		this.settings = createSettings();
+		plan.applyTo(this.settings);
+	}
+
+	/**
+	 * @return new {@link Setting}s, order defines their index
+	 */
+	private static ArrayList<Setting> createSettings() {
+		ArrayList<Setting> s = new ArrayList<Setting>(SETTINGS);
 		s.add(new AirplaneModeSetting());
 		s.add(new ScreenTimeoutSetting());
 		s.add(new ScreenBrightnessSetting());
 		s.add(new VibratorSetting(0));
 		s.add(new VibratorSetting(1));
 		s.add(new RingModeSetting());
-		this.settings = s;
-		this.load(p);
+		return s;
+	}
+
+	/**
+	 * @return {@link Setting}s
+	 */
+	List<Setting> getSettings() {
+		return this.settings;
 	}
 
 	@Override
-	public void load(final SharedPreferences p) {
+	public void load(final KeyValueStore p) {
 		Log.d(TAG, "load()");
 		for (Setting s : this.settings) {
 			s.load(p);
@@ -77,125 +111,262 @@ public final class Profile implements ISetable {
 	}
 
 	@Override
-	public void set(final Context context) {
+	public void set(final Platform platform, final KeyValueStore saved) {
 		Log.d(TAG, "set()");
 		for (Setting s : this.settings) {
-			s.set(context);
+			s.set(platform, saved);
 		}
 	}
 
 	@Override
-	public void reset(final Context context) {
+	public void reset(final Platform platform, final KeyValueStore saved) {
 		Log.d(TAG, "reset()");
 		for (Setting s : this.settings) {
-			s.reset(context);
+			s.reset(platform, saved);
 		}
 	}
 
 	/**
-	 * Add a key to list of keys.
+	 * Add a key to list of keys. Keys without a saved name are added by
+	 * setName() later.
 	 * 
-	 * @param context
-	 *            {@link Context}
+	 * @param platform
+	 *            {@link Platform}
 	 * @param key
 	 *            key
 	 */
-	public static void addKey(final Context context, final String key) {
-		SharedPreferences p = PreferenceManager
-				.getDefaultSharedPreferences(context);
-		ArrayList<String> keys = parseKeys(p.getString(PREF_VALIDKEYS, null));
-		if (keys.contains(key)) {
-			// nothing to do
-			return;
+	public static void addKey(final Platform platform, final String key) {
+		ProfileRegistry r = ProfileRegistry.getInstance(platform);
+		if (!r.contains(key)) {
+			r.put(key, platform.getPreferences(key).getString("name", null));
 		}
-		keys.add(key);
-		p.edit().putString(PREF_VALIDKEYS, concatKeys(keys)).apply();
 	}
 
 	/**
-	 * Concatenate keys to safe them in {@link SharedPreferences}.
+	 * Create a {@link Profile} read from a tag unless it is known already.
 	 * 
-	 * @param keys
-	 *            array of keys
-	 * @return keys as String
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            key
+	 * @param name
+	 *            profile's name
+	 * @param plan
+	 *            {@link ProfilePlan}
+	 * @return true, if {@link Profile} was created
 	 */
-	private static String concatKeys(final ArrayList<String> keys) {
-		StringBuilder sb = new StringBuilder();
-		for (String k : keys) {
-			if (sb.length() > 0) {
-				sb.append(SEPARATOR);
-			}
-			sb.append(k);
-
+	public static boolean importKey(final Platform platform, final String key,
+			final String name, final ProfilePlan plan) {
+		ProfileRegistry r = ProfileRegistry.getInstance(platform);
+		if (r.contains(key)) {
+			// keep local changes
+			return false;
 		}
-		return sb.toString();
+		KeyValueStore e = platform.getPreferences(key);
+		plan.decompile(e);
+		e.putString("name", name);
+		e.apply();
+		plan.save(platform, key);
+		r.put(key, name);
+		Log.i(TAG, "imported profile: " + key);
+		return true;
+	}
+
+	/**
+	 * Remove a key from list of keys.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            key
+	 */
+	public static void removeKey(final Platform platform, final String key) {
+		// unregister first, taps must not load it into the cache again
+		ProfileRegistry.getInstance(platform).remove(key);
+		ProfilePlan.delete(platform, key);
+		ProfileCache.invalidate(key);
+	}
+
+	/**
+	 * Set a profile's name in list of keys. Adds the key if needed.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            key
+	 * @param name
+	 *            profile's name
+	 */
+	public static void setName(final Platform platform, final String key,
+			final String name) {
+		ProfileRegistry.getInstance(platform).put(key, name);
 	}
 
 	/**
-	 * Generate a new key.
+	 * Generate a new key. It is added to list of keys by setName().
 	 * 
-	 * @param context
-	 *            {@link Context}
 	 * @return new key
 	 */
-	public static String genKey(final Context context) {
-		String key = Utils.md5(String.valueOf(System.currentTimeMillis()));
-		addKey(context, key);
-		return key;
+	public static String genKey() {
+		return md5(String.valueOf(System.currentTimeMillis()));
+	}
+
+	/**
+	 * @param s
+	 *            {@link String}
+	 * @return MD5 sum of s in hex
+	 */
+	private static String md5(final String s) {
+		try {
+			byte[] b = MessageDigest.getInstance("MD5").digest(s.getBytes());
+			StringBuilder sb = new StringBuilder(MAX_KEY_LENGTH);
+			for (byte x : b) {
+				sb.append(Character.forDigit((x & BYTE) >> 4, HEX));
+				sb.append(Character.forDigit(x & 0xf, HEX));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("no MD5", e);
+		}
 	}
 
 	/**
 	 * Get a {@link List} of key/name pairs of valid profiles.
 	 * 
-	 * @param context
-	 *            {@link Context}
+	 * @param platform
+	 *            {@link Platform}
 	 * @return {@link List} of key/name pairs
 	 */
-	public static List<String[]> getValidKeys(final Context context) {
-		SharedPreferences p = PreferenceManager
-				.getDefaultSharedPreferences(context);
-		ArrayList<String> keys = parseKeys(p.getString(PREF_VALIDKEYS, null));
-		ArrayList<String[]> ret = new ArrayList<String[]>(keys.size());
-		HashSet<String> remove = new HashSet<String>(0);
+	public static List<String[]> getValidKeys(final Platform platform) {
+		return ProfileRegistry.getInstance(platform).list();
+	}
+
+	/**
+	 * Move keys saved by older versions into the {@link ProfileRegistry}.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param registry
+	 *            {@link ProfileRegistry}
+	 */
+	static void migrateKeys(final Platform platform,
+			final ProfileRegistry registry) {
+		KeyValueStore p = platform.getPreferences(null);
+		String s = p.getString(PREF_VALIDKEYS, null);
+		if (s == null) {
+			return;
+		}
+		ArrayList<String> keys = parseKeys(s);
+		Log.i(TAG, "migrate keys: " + keys.size());
+		LinkedHashMap<String, String> m = new LinkedHashMap<String, String>(
+				keys.size());
 		for (String k : keys) {
-			SharedPreferences sp = context.getSharedPreferences(k,
-					Context.MODE_PRIVATE);
-			if (sp.contains("name")) {
-				ret.add(new String[] { k, sp.getString("name", null) });
-			} else {
-				remove.add(k);
+			String name = platform.getPreferences(k).getString("name", null);
+			if (name != null) {
+				m.put(k, name);
 			}
 		}
-		if (remove.size() > 0) {
-			keys.removeAll(remove);
-			p.edit().putString(PREF_VALIDKEYS, concatKeys(keys)).apply();
+		registry.putAll(m);
+		p.remove(PREF_VALIDKEYS);
+		p.apply();
+	}
+
+	/**
+	 * Check if a key could have been generated by genKey(). Keys failing this
+	 * check are never looked up.
+	 * 
+	 * @param key
+	 *            key
+	 * @return true, if key consists of up to 32 hex digits
+	 */
+	public static boolean isWellFormedKey(final String key) {
+		int l = key == null ? 0 : key.length();
+		if (l == 0 || l > MAX_KEY_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < l; i++) {
+			if (Character.digit(key.charAt(i), HEX) < 0) {
+				return false;
+			}
 		}
-		return ret;
+		return true;
 	}
 
 	/**
-	 * Check if a key is valid.
+	 * Check if a key is valid. Answered from the in-memory
+	 * {@link ProfileRegistry}, unknown keys never touch disk.
 	 * 
-	 * @param context
-	 *            {@link Context}
+	 * @param platform
+	 *            {@link Platform}
 	 * @param key
 	 *            key
 	 * @return true, if profile exists
 	 */
-	public static boolean isValidKey(final Context context, final String key) {
-		SharedPreferences sp = context.getSharedPreferences(key,
-				Context.MODE_PRIVATE);
-		return sp.contains("name");
+	public static boolean isValidKey(final Platform platform, final String key) {
+		return isWellFormedKey(key)
+				&& ProfileRegistry.getInstance(platform).getName(key) != null;
+	}
+
+	/**
+	 * Remember a key as most recently used.
+	 * 
+	 * @param p
+	 *            default {@link KeyValueStore}, applied by the caller
+	 * @param key
+	 *            key
+	 */
+	public static void addRecentKey(final KeyValueStore p, final String key) {
+		StringBuilder sb = new StringBuilder(key);
+		int n = 1;
+		for (String k : getRecentKeys(p)) {
+			if (n >= MAX_RECENT) {
+				break;
+			}
+			if (!k.equals(key)) {
+				sb.append(SEPARATOR).append(k);
+				++n;
+			}
+		}
+		p.putString(PREF_RECENT, sb.toString());
+	}
+
+	/**
+	 * Get recently used keys.
+	 * 
+	 * @param p
+	 *            default {@link KeyValueStore}
+	 * @return keys, most recent first
+	 */
+	public static List<String> getRecentKeys(final KeyValueStore p) {
+		return parseKeys(p.getString(PREF_RECENT, null));
+	}
+
+	/**
+	 * Join keys to be parsed by parseKeys().
+	 * 
+	 * @param keys
+	 *            keys
+	 * @return joined keys
+	 */
+	static String joinKeys(final List<String> keys) {
+		StringBuilder sb = new StringBuilder();
+		for (String k : keys) {
+			if (sb.length() > 0) {
+				sb.append(SEPARATOR);
+			}
+			sb.append(k);
+		}
+		return sb.toString();
 	}
 
 	/**
-	 * Parse keys read from {@link SharedPreferences}.
+	 * Parse keys read from a {@link KeyValueStore}.
 	 * 
 	 * @param keys
 	 *            keys as String
 	 * @return array of keys
 	 */
-	private static ArrayList<String> parseKeys(final String keys) {
+	static ArrayList<String> parseKeys(final String keys) {
 		if (keys == null) {
 			return new ArrayList<String>(0);
 		}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide LRU cache of loaded {@link Profile}s. {@link Profile}s are
+ * loaded from their {@link ProfilePlan} on demand and evicted when the
+ * cache exceeds its byte budget. The {@link Profile}'s
+ * {@link KeyValueStore} is not kept open; entries are dropped whenever a
+ * {@link ProfilePlan} is saved, queued for saving or deleted.
+ * 
+ * @author flx
+ */
+public final class ProfileCache {
+	/** Tag for Logging. */
+	private static final String TAG = "ProfileCache";
+
+	/** Default budget in bytes. */
+	public static final int DEFAULT_MAX_BYTES = 16 * 1024;
+	/**
+	 * Estimated heap used by a cached {@link Profile} besides its
+	 * {@link ProfilePlan}'s binary size: {@link Profile}, its {@link Setting}s
+	 * and the cache's entry.
+	 */
+	private static final int ENTRY_OVERHEAD = 512;
+	/** Initial capacity of internal {@link LinkedHashMap}. */
+	private static final int INITIAL_CAPACITY = 16;
+	/** Load factor of internal {@link LinkedHashMap}. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/**
+	 * A cached {@link Profile}.
+	 */
+	private static final class CachedProfile {
+		/** Loaded {@link Profile}. */
+		private final Profile profile;
+		/** Estimated size in bytes. */
+		private final int size;
+
+		/**
+		 * Default constructor.
+		 * 
+		 * @param prof
+		 *            {@link Profile}
+		 * @param s
+		 *            estimated size in bytes
+		 */
+		CachedProfile(final Profile prof, final int s) {
+			this.profile = prof;
+			this.size = s;
+		}
+	}
+
+	/** Cached {@link Profile}s in access order. */
+	private static final LinkedHashMap<String, CachedProfile> CACHE = new LinkedHashMap<String, CachedProfile>(
+			INITIAL_CAPACITY, LOAD_FACTOR, true);
+	/** Estimated size of all cached {@link Profile}s in bytes. */
+	private static int bytes = 0;
+	/** Budget in bytes. */
+	private static int maxBytes = DEFAULT_MAX_BYTES;
+
+	/**
+	 * No instances.
+	 */
+	private ProfileCache() {
+		// nothing to do
+	}
+
+	/**
+	 * Set budget. Evicts least recently used {@link Profile}s if needed.
+	 * 
+	 * @param max
+	 *            budget in bytes
+	 */
+	public static void setMaxBytes(final int max) {
+		synchronized (CACHE) {
+			maxBytes = max;
+			trim();
+		}
+	}
+
+	/**
+	 * @return estimated size of all cached {@link Profile}s in bytes
+	 */
+	public static int getBytes() {
+		synchronized (CACHE) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Get a {@link Profile}. Loads its {@link ProfilePlan} if it is not cached
+	 * yet.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 * @return {@link Profile}
+	 */
+	public static Profile get(final Platform platform, final String key) {
+		synchronized (CACHE) {
+			CachedProfile e = CACHE.get(key);
+			if (e == null) {
+				Log.d(TAG, "miss: " + key);
+				ProfilePlan plan = ProfilePlan.loadOrCompile(platform, key);
+				e = new CachedProfile(new Profile(plan), ENTRY_OVERHEAD
+						+ plan.toByteArray().length);
+				CACHE.put(key, e);
+				bytes += e.size;
+				trim();
+			}
+			return e.profile;
+		}
+	}
+
+	/**
+	 * Evict least recently used {@link Profile}s until the cache fits its
+	 * budget. Must hold lock on CACHE.
+	 */
+	private static void trim() {
+		Iterator<Map.Entry<String, CachedProfile>> it = CACHE.entrySet()
+				.iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, CachedProfile> e = it.next();
+			Log.d(TAG, "evict: " + e.getKey());
+			bytes -= e.getValue().size;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Check if a {@link Profile} is cached.
+	 * 
+	 * @param key
+	 *            profile's key
+	 * @return true, if {@link Profile} is cached
+	 */
+	public static boolean contains(final String key) {
+		synchronized (CACHE) {
+			return CACHE.containsKey(key);
+		}
+	}
+
+	/**
+	 * Drop a {@link Profile} from cache.
+	 * 
+	 * @param key
+	 *            profile's key
+	 */
+	public static void invalidate(final String key) {
+		synchronized (CACHE) {
+			CachedProfile e = CACHE.remove(key);
+			if (e != null) {
+				bytes -= e.size;
+			}
+		}
+	}
+
+	/**
+	 * Drop all cached {@link Profile}s.
+	 */
+	public static void clear() {
+		synchronized (CACHE) {
+			CACHE.clear();
+			bytes = 0;
+		}
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compiled, immutable form of a {@link Profile}. Holds a bit mask of touched
+ * {@link Setting}s and one operand per touched {@link Setting}.
+ * 
+ * Binary format: version byte, mask byte, then for each touched
+ * {@link Setting} its index as opcode byte followed by its operand as four
+ * bytes big endian.
+ * 
+ * @author flx
+ */
+public final class ProfilePlan {
+	/** Tag for Logging. */
+	private static final String TAG = "ProfilePlan";
+
+	/** Format version. */
+	private static final byte VERSION = 1;
+	/** Directory holding compiled plans. */
+	private static final String DIR = "plans";
+	/** Bytes per touched {@link Setting}: opcode plus int operand. */
+	private static final int OP_SIZE = 5;
+	/** Bytes of header: version and mask. */
+	private static final int HEADER_SIZE = 2;
+	/** Mask for a single byte. */
+	private static final int BYTE = 0xff;
+
+	/** Thread saving plans in background. */
+	private static final ExecutorService SAVER = Executors
+			.newSingleThreadExecutor(new NamedThreadFactory("plan"));
+	/** Plans waiting to be saved in background by key, latest only. */
+	private static final HashMap<String, ProfilePlan> PENDING = new HashMap<String, ProfilePlan>();
+
+	/** Touched {@link Setting}s, bit i set for {@link Setting} i. */
+	private final int mask;
+	/** Operands by {@link Setting}'s index. */
+	private final int[] operands;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param m
+	 *            mask
+	 * @param ops
+	 *            operands
+	 */
+	private ProfilePlan(final int m, final int[] ops) {
+		this.mask = m;
+		this.operands = ops;
+	}
+
+	/**
+	 * Compile a loaded {@link Profile}.
+	 * 
+	 * @param profile
+	 *            {@link Profile}
+	 * @return {@link ProfilePlan}
+	 */
+	public static ProfilePlan compile(final Profile profile) {
+		List<Setting> settings = profile.getSettings();
+		int l = settings.size();
+		int m = 0;
+		int[] ops = new int[l];
+		for (int i = 0; i < l; i++) {
+			Setting s = settings.get(i);
+			if (s.isTouched()) {
+				m |= 1 << i;
+				ops[i] = s.getDesiredState();
+			}
+		}
+		return new ProfilePlan(m, ops);
+	}
+
+	/**
+	 * Compile a {@link Profile} from its {@link KeyValueStore}.
+	 * 
+	 * @param p
+	 *            profile's {@link KeyValueStore}
+	 * @return {@link ProfilePlan}
+	 */
+	public static ProfilePlan compile(final KeyValueStore p) {
+		return compile(new Profile(p));
+	}
+
+	/**
+	 * Set desired states of {@link Setting}s.
+	 * 
+	 * @param settings
+	 *            {@link Setting}s in {@link Profile}'s order
+	 */
+	void applyTo(final List<Setting> settings) {
+		int l = settings.size();
+		for (int i = 0; i < l; i++) {
+			Setting s = settings.get(i);
+			if (this.touches(i)) {
+				s.setDesiredState(this.operands[i]);
+			} else {
+				s.clearDesiredState();
+			}
+		}
+	}
+
+	/**
+	 * Write this plan to a profile's {@link KeyValueStore} as edited by
+	 * ProfileActivity. Not applied.
+	 * 
+	 * @param e
+	 *            profile's {@link KeyValueStore}
+	 */
+	public void decompile(final KeyValueStore e) {
+		for (Setting s : new Profile(this).getSettings()) {
+			s.save(e);
+		}
+	}
+
+	/**
+	 * Get this plan as a profile's {@link KeyValueStore} as edited by
+	 * ProfileActivity, without opening it.
+	 * 
+	 * @param name
+	 *            profile's name
+	 * @return {@link Map} as returned by {@link KeyValueStore#getAll()}
+	 */
+	public Map<String, Object> toPrefs(final String name) {
+		TreeMap<String, Object> m = new TreeMap<String, Object>();
+		if (name != null) {
+			m.put("name", name);
+		}
+		for (Setting s : new Profile(this).getSettings()) {
+			s.save(m);
+		}
+		return m;
+	}
+
+	/**
+	 * @param i
+	 *            {@link Setting}'s index
+	 * @return true, if {@link Setting} i is touched
+	 */
+	public boolean touches(final int i) {
+		return (this.mask & (1 << i)) != 0;
+	}
+
+	/**
+	 * @return bit mask of touched {@link Setting}s
+	 */
+	public int getMask() {
+		return this.mask;
+	}
+
+	/**
+	 * @param i
+	 *            {@link Setting}'s index
+	 * @return operand of {@link Setting} i
+	 */
+	public int getOperand(final int i) {
+		return this.operands[i];
+	}
+
+	/**
+	 * @return binary representation
+	 */
+	public byte[] toByteArray() {
+		byte[] b = new byte[HEADER_SIZE + Integer.bitCount(this.mask)
+				* OP_SIZE];
+		b[0] = VERSION;
+		b[1] = (byte) this.mask;
+		int pos = HEADER_SIZE;
+		for (int i = 0; i < this.operands.length; i++) {
+			if (this.touches(i)) {
+				int v = this.operands[i];
+				b[pos] = (byte) i;
+				b[pos + 1] = (byte) (v >>> 24);
+				b[pos + 2] = (byte) (v >>> 16);
+				b[pos + 3] = (byte) (v >>> 8);
+				b[pos + 4] = (byte) v;
+				pos += OP_SIZE;
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Decode binary representation.
+	 * 
+	 * @param b
+	 *            buffer
+	 * @param offset
+	 *            offset
+	 * @param length
+	 *            length
+	 * @return {@link ProfilePlan}
+	 * @throws IllegalArgumentException
+	 *             invalid data
+	 */
+	public static ProfilePlan fromBytes(final byte[] b, final int offset,
+			final int length) {
+		if (length < HEADER_SIZE || b[offset] != VERSION) {
+			throw new IllegalArgumentException("unknown format");
+		}
+		int m = b[offset + 1] & BYTE;
+		int l = Profile.SETTINGS;
+		if (m >>> l != 0
+				|| length != HEADER_SIZE + Integer.bitCount(m) * OP_SIZE) {
+			throw new IllegalArgumentException("invalid length/mask");
+		}
+		int[] ops = new int[l];
+		int pos = offset + HEADER_SIZE;
+		int end = offset + length;
+		while (pos < end) {
+			int i = b[pos];
+			if (i < 0 || i >= l || (m & (1 << i)) == 0) {
+				throw new IllegalArgumentException("invalid opcode: " + i);
+			}
+			ops[i] = (b[pos + 1] & BYTE) << 24 | (b[pos + 2] & BYTE) << 16
+					| (b[pos + 3] & BYTE) << 8 | (b[pos + 4] & BYTE);
+			pos += OP_SIZE;
+		}
+		return new ProfilePlan(m, ops);
+	}
+
+	/**
+	 * Get file holding a compiled plan.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 * @return {@link File}
+	 */
+	private static File getFile(final Platform platform, final String key) {
+		if (key.indexOf(File.separatorChar) >= 0) {
+			throw new IllegalArgumentException("invalid key: " + key);
+		}
+		return new File(platform.getDir(DIR), key);
+	}
+
+	/**
+	 * Load a compiled plan saved by save(). Plans still waiting to be saved
+	 * by saveInBackground() are returned without reading the file.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 * @return {@link ProfilePlan}, null if there is none
+	 */
+	public static ProfilePlan load(final Platform platform, final String key) {
+		synchronized (PENDING) {
+			ProfilePlan plan = PENDING.get(key);
+			if (plan != null) {
+				return plan;
+			}
+		}
+		File f = getFile(platform, key);
+		if (!f.exists()) {
+			return null;
+		}
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(f);
+			byte[] b = new byte[(int) f.length()];
+			int l = 0;
+			while (l < b.length) {
+				int r = in.read(b, l, b.length - l);
+				if (r < 0) {
+					break;
+				}
+				l += r;
+			}
+			return fromBytes(b, 0, l);
+		} catch (IOException e) {
+			Log.e(TAG, "error reading plan: " + key, e);
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "invalid plan: " + key, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					Log.e(TAG, "error closing plan: " + key, e);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Load a compiled plan, compile and save it if there is none. The
+	 * profile's {@link KeyValueStore} is opened only in the latter case.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 * @return {@link ProfilePlan}
+	 */
+	public static ProfilePlan loadOrCompile(final Platform platform,
+			final String key) {
+		ProfilePlan plan = load(platform, key);
+		if (plan == null) {
+			// not compiled yet
+			plan = compile(platform.getPreferences(key));
+			plan.save(platform, key);
+		}
+		return plan;
+	}
+
+	/**
+	 * Save compiled plan.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 */
+	public void save(final Platform platform, final String key) {
+		File f = getFile(platform, key);
+		File tmp = new File(f.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			out.write(this.toByteArray());
+			out.close();
+			out = null;
+			if (!tmp.renameTo(f)) {
+				Log.e(TAG, "error renaming plan: " + key);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "error writing plan: " + key, e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Log.e(TAG, "error closing plan: " + key, e);
+				}
+			}
+		}
+		ProfileCache.invalidate(key);
+	}
+
+	/**
+	 * Save compiled plan off the caller's thread. Plans are saved in order.
+	 * The plan is loaded by load() and the {@link ProfileCache} is
+	 * invalidated right away, taps never see the plan being replaced.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 */
+	public void saveInBackground(final Platform platform, final String key) {
+		synchronized (PENDING) {
+			PENDING.put(key, this);
+		}
+		ProfileCache.invalidate(key);
+		SAVER.execute(new Runnable() {
+			@Override
+			public void run() {
+				ProfilePlan.this.save(platform, key);
+				synchronized (PENDING) {
+					if (PENDING.get(key) == ProfilePlan.this) {
+						// no later plan waiting
+						PENDING.remove(key);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run a task on the thread saving plans, after all pending saves.
+	 * 
+	 * @param r
+	 *            {@link Runnable}
+	 */
+	public static void enqueue(final Runnable r) {
+		SAVER.execute(r);
+	}
+
+	/**
+	 * Delete compiled plan.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 */
+	public static void delete(final Platform platform, final String key) {
+		if (!getFile(platform, key).delete()) {
+			Log.d(TAG, "no plan to delete: " + key);
+		}
+	}
+}
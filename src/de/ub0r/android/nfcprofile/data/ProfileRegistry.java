@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registry of all known {@link Profile}s. Keeps key and name of each
+ * {@link Profile} in insertion order. Backed by a {@link KeyValueStore}
+ * holding one entry per {@link Profile}, so adding or removing a
+ * {@link Profile} does not rewrite the other entries.
+ * 
+ * @author flx
+ */
+public final class ProfileRegistry {
+	/** Tag for Logging. */
+	private static final String TAG = "ProfileRegistry";
+
+	/** Name of the {@link KeyValueStore} backing the registry. */
+	private static final String PREFS_NAME = "profiles";
+	/** Separate sequence number and name in stored values. */
+	private static final char SEPARATOR = ':';
+
+	/** Single instance. */
+	private static ProfileRegistry instance = null;
+
+	/** Backing {@link KeyValueStore}. */
+	private final KeyValueStore prefs;
+	/** Key to name mapping in insertion order. */
+	private final LinkedHashMap<String, String> names;
+	/** Key to sequence number mapping. */
+	private final Map<String, Long> seqs;
+	/** Next sequence number. */
+	private long nextSeq;
+
+	/**
+	 * Load registry.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 */
+	private ProfileRegistry(final Platform platform) {
+		this.prefs = platform.getPreferences(PREFS_NAME);
+		Map<String, ?> all = this.prefs.getAll();
+		this.names = new LinkedHashMap<String, String>(all.size());
+		this.seqs = new HashMap<String, Long>(all.size());
+		TreeMap<Long, String[]> sorted = new TreeMap<Long, String[]>();
+		for (Map.Entry<String, ?> e : all.entrySet()) {
+			String v = String.valueOf(e.getValue());
+			int i = v.indexOf(SEPARATOR);
+			try {
+				sorted.put(Long.parseLong(v.substring(0, i)), new String[] {
+						e.getKey(), v.substring(i + 1) });
+			} catch (RuntimeException ex) {
+				Log.w(TAG, "invalid entry: " + e.getKey(), ex);
+			}
+		}
+		long max = 0;
+		int orphans = 0;
+		for (Map.Entry<Long, String[]> e : sorted.entrySet()) {
+			String[] kv = e.getValue();
+			max = e.getKey();
+			if (kv[1].length() == 0) {
+				// registered before its name was saved
+				this.prefs.remove(kv[0]);
+				++orphans;
+				continue;
+			}
+			this.seqs.put(kv[0], e.getKey());
+			this.names.put(kv[0], kv[1]);
+		}
+		this.nextSeq = max + 1;
+		if (orphans > 0) {
+			Log.i(TAG, "pruned " + orphans + " unnamed profiles");
+			this.prefs.apply();
+		}
+		Log.d(TAG, "loaded " + this.names.size() + " profiles");
+	}
+
+	/**
+	 * Get the registry.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @return {@link ProfileRegistry}
+	 */
+	public static synchronized ProfileRegistry getInstance(
+			final Platform platform) {
+		if (instance == null) {
+			instance = new ProfileRegistry(platform);
+			Profile.migrateKeys(platform, instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Build stored value.
+	 * 
+	 * @param seq
+	 *            sequence number
+	 * @param name
+	 *            name
+	 * @return stored value
+	 */
+	private static String toValue(final long seq, final String name) {
+		return String.valueOf(seq) + SEPARATOR + name;
+	}
+
+	/**
+	 * Add a {@link Profile}. Updates its name if it is registered already.
+	 * 
+	 * @param key
+	 *            profile's key
+	 * @param name
+	 *            profile's name, null is ignored
+	 */
+	public synchronized void put(final String key, final String name) {
+		this.putAll(Collections.singletonMap(key, name));
+	}
+
+	/**
+	 * Add a bunch of {@link Profile}s with a single write. A {@link Profile}
+	 * is registered with its name only, entries without name are ignored.
+	 * 
+	 * @param entries
+	 *            key to name mapping
+	 */
+	public synchronized void putAll(final Map<String, String> entries) {
+		boolean changed = false;
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			String key = entry.getKey();
+			String name = entry.getValue();
+			if (name == null) {
+				continue;
+			}
+			Long seq = this.seqs.get(key);
+			if (seq == null) {
+				seq = this.nextSeq++;
+				this.seqs.put(key, seq);
+			} else {
+				if (name.equals(this.names.get(key))) {
+					continue;
+				}
+			}
+			this.names.put(key, name);
+			this.prefs.putString(key, toValue(seq, name));
+			changed = true;
+		}
+		if (changed) {
+			this.prefs.apply();
+		}
+	}
+
+	/**
+	 * Remove a {@link Profile}.
+	 * 
+	 * @param key
+	 *            profile's key
+	 */
+	public synchronized void remove(final String key) {
+		if (this.seqs.remove(key) != null) {
+			this.names.remove(key);
+			this.prefs.remove(key);
+			this.prefs.apply();
+		}
+	}
+
+	/**
+	 * @param key
+	 *            profile's key
+	 * @return true, if {@link Profile} is registered
+	 */
+	public synchronized boolean contains(final String key) {
+		return this.seqs.containsKey(key);
+	}
+
+	/**
+	 * @param key
+	 *            profile's key
+	 * @return {@link Profile}'s name
+	 */
+	public synchronized String getName(final String key) {
+		return this.names.get(key);
+	}
+
+	/**
+	 * @return number of registered {@link Profile}s
+	 */
+	public synchronized int size() {
+		return this.seqs.size();
+	}
+
+	/**
+	 * Get key/name pairs of all {@link Profile}s in insertion order.
+	 * 
+	 * @return {@link List} of key/name pairs
+	 */
+	public synchronized List<String[]> list() {
+		ArrayList<String[]> ret = new ArrayList<String[]>(this.names.size());
+		for (Map.Entry<String, String> e : this.names.entrySet()) {
+			ret.add(new String[] { e.getKey(), e.getValue() });
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+
+import de.ub0r.android.nfcprofile.data.ApplyEngine.OnAppliedListener;
+
+/**
+ * Stack of active {@link Profile}s. Each layer overrides the
+ * {@link Setting}s it touches; a {@link Setting}'s effective state is the
+ * one of the topmost layer touching it, or the state saved before any layer
+ * touched it.
+ * 
+ * For each {@link Setting} the index of its topmost layer is kept. Changing
+ * a layer updates these pointers for the {@link Setting}s touched by that
+ * layer only and applies only {@link Setting}s whose effective state changes.
+ * 
+ * @author flx
+ */
+public final class ProfileStack {
+	/** Tag for Logging. */
+	private static final String TAG = "ProfileStack";
+
+	/** Preference's name: keys of stacked {@link Profile}s, bottom first. */
+	private static final String PREF_STACK = "profile_stack";
+	/** No layer touches the {@link Setting}. */
+	private static final int NONE = -1;
+
+	/** Single instance. */
+	private static ProfileStack instance = null;
+
+	/** Keys of layers, bottom first. */
+	private final ArrayList<String> keys = new ArrayList<String>();
+	/** {@link Profile}s of layers as applied, bottom first. */
+	private final ArrayList<Profile> layers = new ArrayList<Profile>();
+	/** Index of topmost layer touching a {@link Setting}, by its index. */
+	private final int[] top = new int[Profile.SETTINGS];
+
+	/**
+	 * Default constructor.
+	 */
+	private ProfileStack() {
+		Arrays.fill(this.top, NONE);
+	}
+
+	/**
+	 * Get the {@link ProfileStack}, load it on first use.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @return {@link ProfileStack}
+	 */
+	public static synchronized ProfileStack getInstance(
+			final Platform platform) {
+		if (instance == null) {
+			instance = load(platform);
+		}
+		return instance;
+	}
+
+	/**
+	 * Load stacked {@link Profile}s.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @return {@link ProfileStack}
+	 */
+	private static ProfileStack load(final Platform platform) {
+		KeyValueStore p = platform.getPreferences(null);
+		String s = p.getString(PREF_STACK, null);
+		if (s == null) {
+			// written by older versions
+			s = p.getString(Profile.CURRENT_PROFILE, null);
+		}
+		ProfileStack ret = new ProfileStack();
+		for (String k : Profile.parseKeys(s)) {
+			if (Profile.isValidKey(platform, k)) {
+				ret.keys.add(k);
+				ret.layers.add(ProfileCache.get(platform, k));
+			} else {
+				Log.w(TAG, "drop unknown layer: " + k);
+			}
+		}
+		for (int i = 0; i < ret.top.length; i++) {
+			ret.updateTop(i);
+		}
+		Log.d(TAG, "loaded " + ret.keys.size() + " layers");
+		return ret;
+	}
+
+	/**
+	 * @return number of layers
+	 */
+	public synchronized int size() {
+		return this.keys.size();
+	}
+
+	/**
+	 * @param key
+	 *            profile's key
+	 * @return index of {@link Profile}'s layer, -1 if it is not stacked
+	 */
+	public synchronized int indexOf(final String key) {
+		return this.keys.indexOf(key);
+	}
+
+	/**
+	 * Put a {@link Profile} on top.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param key
+	 *            profile's key
+	 * @param profile
+	 *            {@link Profile}
+	 * @param saved
+	 *            default {@link KeyValueStore} holding the saved state,
+	 *            applied when done
+	 * @param l
+	 *            {@link OnAppliedListener}, may be null
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return {@link Future} finishing after l was called
+	 */
+	public synchronized Future<?> push(final Platform platform,
+			final String key, final Profile profile,
+			final KeyValueStore saved, final OnAppliedListener l,
+			final TapTracer.Tap tap) {
+		Setting[] before = this.getEffective();
+		this.keys.add(key);
+		this.layers.add(profile);
+		int n = this.layers.size() - 1;
+		int mask = 0;
+		for (int i = 0; i < this.top.length; i++) {
+			if (this.touches(n, i)) {
+				this.top[i] = n;
+				mask |= 1 << i;
+			}
+		}
+		return this.commit(platform, before, mask, saved, l, tap);
+	}
+
+	/**
+	 * Remove a layer.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param index
+	 *            layer's index
+	 * @param saved
+	 *            default {@link KeyValueStore} holding the saved state,
+	 *            applied when done
+	 * @param l
+	 *            {@link OnAppliedListener}, may be null
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return {@link Future} finishing after l was called
+	 */
+	public synchronized Future<?> remove(final Platform platform,
+			final int index, final KeyValueStore saved,
+			final OnAppliedListener l, final TapTracer.Tap tap) {
+		Setting[] before = this.getEffective();
+		this.keys.remove(index);
+		this.layers.remove(index);
+		int mask = 0;
+		for (int i = 0; i < this.top.length; i++) {
+			if (this.top[i] == index) {
+				this.updateTop(i);
+				mask |= 1 << i;
+			} else if (this.top[i] > index) {
+				--this.top[i];
+			}
+		}
+		return this.commit(platform, before, mask, saved, l, tap);
+	}
+
+	/**
+	 * Replace a layer's {@link Profile}.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param index
+	 *            layer's index
+	 * @param key
+	 *            new profile's key
+	 * @param profile
+	 *            new {@link Profile}
+	 * @param saved
+	 *            default {@link KeyValueStore} holding the saved state,
+	 *            applied when done
+	 * @param l
+	 *            {@link OnAppliedListener}, may be null
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return {@link Future} finishing after l was called
+	 */
+	public synchronized Future<?> replace(final Platform platform,
+			final int index, final String key, final Profile profile,
+			final KeyValueStore saved, final OnAppliedListener l,
+			final TapTracer.Tap tap) {
+		Setting[] before = this.getEffective();
+		this.keys.set(index, key);
+		this.layers.set(index, profile);
+		int mask = 0;
+		for (int i = 0; i < this.top.length; i++) {
+			if (this.top[i] == index
+					|| (this.top[i] < index && this.touches(index, i))) {
+				this.updateTop(i);
+				mask |= 1 << i;
+			}
+		}
+		return this.commit(platform, before, mask, saved, l, tap);
+	}
+
+	/**
+	 * @param layer
+	 *            layer's index
+	 * @param i
+	 *            {@link Setting}'s index
+	 * @return true, if layer touches {@link Setting} i
+	 */
+	private boolean touches(final int layer, final int i) {
+		return this.getSetting(layer, i).isTouched();
+	}
+
+	/**
+	 * @param layer
+	 *            layer's index
+	 * @param i
+	 *            {@link Setting}'s index
+	 * @return layer's {@link Setting} i
+	 */
+	private Setting getSetting(final int layer, final int i) {
+		return this.layers.get(layer).getSettings().get(i);
+	}
+
+	/**
+	 * Find topmost layer touching a {@link Setting}.
+	 * 
+	 * @param i
+	 *            {@link Setting}'s index
+	 */
+	private void updateTop(final int i) {
+		int t = this.layers.size() - 1;
+		while (t >= 0 && !this.touches(t, i)) {
+			--t;
+		}
+		this.top[i] = t;
+	}
+
+	/**
+	 * @return effective {@link Setting}s by index, null if untouched
+	 */
+	private Setting[] getEffective() {
+		Setting[] ret = new Setting[this.top.length];
+		for (int i = 0; i < ret.length; i++) {
+			if (this.top[i] != NONE) {
+				ret[i] = this.getSetting(this.top[i], i);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Apply {@link Setting}s whose effective state changed and save the
+	 * stack.
+	 * 
+	 * @param platform
+	 *            {@link Platform}
+	 * @param before
+	 *            effective {@link Setting}s before the change
+	 * @param mask
+	 *            {@link Setting}s which may have changed, bit i set for
+	 *            {@link Setting} i
+	 * @param saved
+	 *            default {@link KeyValueStore} holding the saved state,
+	 *            applied when done
+	 * @param l
+	 *            {@link OnAppliedListener}, may be null
+	 * @param tap
+	 *            {@link TapTracer.Tap} to trace, may be null
+	 * @return {@link Future} finishing after l was called
+	 */
+	private Future<?> commit(final Platform platform, final Setting[] before,
+			final int mask, final KeyValueStore saved,
+			final OnAppliedListener l, final TapTracer.Tap tap) {
+		ArrayList<Setting> settings = new ArrayList<Setting>(
+				Integer.bitCount(mask));
+		int[] steps = new int[this.top.length];
+		for (int i = 0; i < this.top.length; i++) {
+			if ((mask & (1 << i)) == 0) {
+				continue;
+			}
+			Setting a = before[i];
+			Setting b = null;
+			if (this.top[i] != NONE) {
+				b = this.getSetting(this.top[i], i);
+			}
+			if (b == null) {
+				if (a != null) {
+					steps[settings.size()] = ApplyEngine.STEP_RESET;
+					settings.add(a);
+				}
+			} else if (a == null) {
+				steps[settings.size()] = ApplyEngine.STEP_SET;
+				settings.add(b);
+			} else if (a.getDesiredState() != b.getDesiredState()) {
+				// keep the state saved by the layer below
+				steps[settings.size()] = ApplyEngine.STEP_SWITCH;
+				settings.add(b);
+			}
+		}
+		Log.d(TAG, "layers: " + this.keys + ", apply " + settings.size()
+				+ " settings");
+		if (this.keys.isEmpty()) {
+			saved.remove(PREF_STACK);
+			saved.remove(Profile.CURRENT_PROFILE);
+		} else {
+			saved.putString(PREF_STACK, Profile.joinKeys(this.keys));
+			saved.putString(Profile.CURRENT_PROFILE,
+					this.keys.get(this.keys.size() - 1));
+		}
+		return ApplyEngine.run(platform, settings, steps, saved, l, tap);
+	}
+}
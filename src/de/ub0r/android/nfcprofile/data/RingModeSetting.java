@@ -18,13 +18,6 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.media.AudioManager;
-import android.preference.PreferenceManager;
-import de.ub0r.android.lib.Log;
-
 /**
  * {@link Setting} switching ring mode.
  * 
@@ -34,9 +27,6 @@ public final class RingModeSetting extends Setting {
 	/** Tag for Logging. */
 	private static final String TAG = RingModeSetting.class.getSimpleName();
 
-	/** Desired state. */
-	private String desiredState;
-
 	/**
 	 * Default constructor.
 	 */
@@ -45,51 +35,78 @@ public final class RingModeSetting extends Setting {
 	}
 
 	@Override
-	public void load(final SharedPreferences p) {
-		this.desiredState = p.getString(this.getName(), null);
-		if (this.desiredState == null || this.desiredState.equals(UNCHANGED)) {
-			this.desiredState = null;
+	protected int parse(final String s) {
+		if (s.equals(ACTIVATE)) {
+			return 1;
+		} else if (s.equals(DEACTIVATE)) {
+			return 0;
 		}
+		throw new IllegalArgumentException("unknown state: " + s);
+	}
+
+	@Override
+	protected String format(final int state) {
+		return state == 1 ? ACTIVATE : DEACTIVATE;
 	}
 
 	@Override
-	public void set(final Context context) {
-		AudioManager amgr = (AudioManager) context
-				.getSystemService(Context.AUDIO_SERVICE);
+	int getLane() {
+		return LANE_AUDIO;
+	}
+
+	@Override
+	public void set(final Platform platform, final KeyValueStore saved) {
+		if (!this.isTouched()) {
+			Log.d(TAG, "ignore unchanged");
+			return;
+		}
+		AudioPort amgr = platform.getAudio();
 		// save current settings
-		Editor e = PreferenceManager.getDefaultSharedPreferences(context)
-				.edit();
-		e.putInt(this.getResetKey(), amgr.getRingerMode());
-		e.apply();
+		int current = amgr.getRingerMode();
+		saved.putInt(this.getResetKey(), current);
 
 		// set to desired state
-		if (this.desiredState == null) {
-			Log.d(TAG, "ignore desiredState == null");
-		} else if (this.desiredState.equals(ACTIVATE)) {
+		int mode;
+		if (this.getDesiredState() == 1) {
 			Log.i(TAG, "set on");
-			amgr.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-		} else if (this.desiredState.equals(DEACTIVATE)) {
+			mode = AudioPort.RINGER_MODE_NORMAL;
+		} else {
 			Log.i(TAG, "set off");
-			int vm = amgr.getVibrateSetting(AudioManager.VIBRATE_TYPE_RINGER);
-			if (vm == AudioManager.VIBRATE_SETTING_OFF) {
-				amgr.setRingerMode(AudioManager.RINGER_MODE_SILENT);
+			int vm = amgr.getVibrateSetting(AudioPort.VIBRATE_TYPE_RINGER);
+			if (vm == AudioPort.VIBRATE_SETTING_OFF) {
+				mode = AudioPort.RINGER_MODE_SILENT;
 			} else {
-				amgr.setRingerMode(AudioManager.RINGER_MODE_VIBRATE);
+				mode = AudioPort.RINGER_MODE_VIBRATE;
 			}
-		} else {
-			Log.e(TAG, "unknown desired state");
 		}
+		setRingerMode(amgr, current, mode);
 	}
 
 	@Override
-	public void reset(final Context context) {
-		if (this.desiredState != null) {
-			AudioManager amgr = (AudioManager) context
-					.getSystemService(Context.AUDIO_SERVICE);
-			SharedPreferences p = PreferenceManager
-					.getDefaultSharedPreferences(context);
-			amgr.setRingerMode(p.getInt(this.getResetKey(),
-					AudioManager.RINGER_MODE_NORMAL));
+	public void reset(final Platform platform, final KeyValueStore saved) {
+		if (this.isTouched()) {
+			AudioPort amgr = platform.getAudio();
+			setRingerMode(amgr, amgr.getRingerMode(), saved.getInt(
+					this.getResetKey(), AudioPort.RINGER_MODE_NORMAL));
+		}
+	}
+
+	/**
+	 * Set ringer mode unless it is set already.
+	 * 
+	 * @param amgr
+	 *            {@link AudioPort}
+	 * @param current
+	 *            current ringer mode
+	 * @param mode
+	 *            desired ringer mode
+	 */
+	private static void setRingerMode(final AudioPort amgr,
+			final int current, final int mode) {
+		if (current == mode) {
+			Log.d(TAG, "unchanged ringer mode: " + mode);
+		} else {
+			amgr.setRingerMode(mode);
 		}
 	}
 }
@@ -18,15 +18,6 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import android.content.ContentResolver;
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.preference.PreferenceManager;
-import android.provider.Settings;
-import android.provider.Settings.SettingNotFoundException;
-import de.ub0r.android.lib.Log;
-
 /**
  * {@link Setting} switching ring mode.
  * 
@@ -44,9 +35,6 @@ public final class ScreenBrightnessSetting extends Setting {
 	/** Brightness value. */
 	private static final String VALUE = "value";
 
-	/** Desired state. */
-	private Integer desiredState;
-
 	/**
 	 * Default constructor.
 	 */
@@ -55,69 +43,71 @@ public final class ScreenBrightnessSetting extends Setting {
 	}
 
 	@Override
-	public void load(final SharedPreferences p) {
-		this.desiredState = null;
-		String s = p.getString(this.getName(), null);
-		if (s != null && !s.equals(UNCHANGED)) {
-			try {
-				this.desiredState = Integer.parseInt(s);
-			} catch (NumberFormatException e) {
-				Log.e(TAG, "illegal number format: " + s, e);
-			}
-		}
+	protected int parse(final String s) {
+		return Integer.parseInt(s);
 	}
 
 	@Override
-	public void set(final Context context) {
-		ContentResolver cr = context.getContentResolver();
-		// save current settings
-		Editor editor = PreferenceManager.getDefaultSharedPreferences(context)
-				.edit();
-		try {
-			editor.putInt(this.getResetKey(MODE), Settings.System.getInt(cr,
-					Settings.System.SCREEN_BRIGHTNESS_MODE));
-		} catch (SettingNotFoundException e) {
-			Log.e(TAG, "setting not found.. ", e);
-		}
-		try {
-			editor.putInt(this.getResetKey(VALUE), Settings.System.getInt(cr,
-					Settings.System.SCREEN_BRIGHTNESS));
-		} catch (SettingNotFoundException e) {
-			Log.e(TAG, "setting not found.. ", e);
-		}
-		editor.apply();
+	protected String format(final int state) {
+		return String.valueOf(state);
+	}
 
-		// set to desired state
-		if (this.desiredState == null) {
-			Log.d(TAG, "ignore desiredState == null");
+	@Override
+	public void set(final Platform platform, final KeyValueStore saved) {
+		if (!this.isTouched()) {
+			Log.d(TAG, "ignore unchanged");
 			return;
 		}
-		if (this.desiredState < 0) {
-			Log.d(TAG, "set " + Settings.System.SCREEN_BRIGHTNESS_MODE + " to "
-					+ Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC);
-			Settings.System.putInt(cr, Settings.System.SCREEN_BRIGHTNESS_MODE,
-					Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC);
+		SystemSettingsPort settings = platform.getSystemSettings();
+		// save current settings
+		this.save(settings, saved, SystemSettingsPort.SCREEN_BRIGHTNESS_MODE,
+				MODE);
+		this.save(settings, saved, SystemSettingsPort.SCREEN_BRIGHTNESS, VALUE);
+
+		// set to desired state
+		if (this.getDesiredState() < 0) {
+			putIntIfChanged(settings, SystemSettingsPort.SCREEN_BRIGHTNESS_MODE,
+					SystemSettingsPort.SCREEN_BRIGHTNESS_MODE_AUTOMATIC);
 		} else {
-			Log.d(TAG, "set " + Settings.System.SCREEN_BRIGHTNESS + " to "
-					+ this.desiredState);
-			Settings.System.putInt(cr, Settings.System.SCREEN_BRIGHTNESS_MODE,
-					Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL);
-			Settings.System.putInt(cr, Settings.System.SCREEN_BRIGHTNESS,
-					this.desiredState); // FIXME
+			putIntIfChanged(settings, SystemSettingsPort.SCREEN_BRIGHTNESS_MODE,
+					SystemSettingsPort.SCREEN_BRIGHTNESS_MODE_MANUAL);
+			putIntIfChanged(settings, SystemSettingsPort.SCREEN_BRIGHTNESS,
+					this.getDesiredState()); // FIXME
 		}
 	}
 
 	@Override
-	public void reset(final Context context) {
-		if (this.desiredState != null) {
-			ContentResolver cr = context.getContentResolver();
-			SharedPreferences p = PreferenceManager
-					.getDefaultSharedPreferences(context);
-			Settings.System.putInt(cr, Settings.System.SCREEN_BRIGHTNESS,
-					p.getInt(this.getResetKey(VALUE), DEFAULT)); // FIXME
-			Settings.System.putInt(cr, Settings.System.SCREEN_BRIGHTNESS_MODE,
-					p.getInt(this.getResetKey(MODE),
-							Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC));
+	public void reset(final Platform platform, final KeyValueStore saved) {
+		if (this.isTouched()) {
+			SystemSettingsPort settings = platform.getSystemSettings();
+			putIntIfChanged(settings, SystemSettingsPort.SCREEN_BRIGHTNESS,
+					saved.getInt(this.getResetKey(VALUE), DEFAULT)); // FIXME
+			int mode = saved.getInt(this.getResetKey(MODE),
+					SystemSettingsPort.SCREEN_BRIGHTNESS_MODE_AUTOMATIC);
+			putIntIfChanged(settings,
+					SystemSettingsPort.SCREEN_BRIGHTNESS_MODE, mode);
+		}
+	}
+
+	/**
+	 * Save current value of a {@link SystemSettingsPort} setting.
+	 * 
+	 * @param settings
+	 *            {@link SystemSettingsPort}
+	 * @param saved
+	 *            {@link KeyValueStore}
+	 * @param name
+	 *            setting's name
+	 * @param postfix
+	 *            postfix of reset key
+	 */
+	private void save(final SystemSettingsPort settings,
+			final KeyValueStore saved, final String name, final String postfix) {
+		int current = settings.getInt(name, SystemSettingsPort.NOT_FOUND);
+		if (current == SystemSettingsPort.NOT_FOUND) {
+			Log.e(TAG, "setting not found: " + name);
+		} else {
+			saved.putInt(this.getResetKey(postfix), current);
 		}
 	}
 }
@@ -18,15 +18,6 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import android.content.ContentResolver;
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.preference.PreferenceManager;
-import android.provider.Settings;
-import android.provider.Settings.SettingNotFoundException;
-import de.ub0r.android.lib.Log;
-
 /**
  * {@link Setting} switching ring mode.
  * 
@@ -42,9 +33,6 @@ public final class ScreenTimeoutSetting extends Setting {
 	/** Default value. */
 	private static final int DEFAULT = 120;
 
-	/** Desired state. */
-	private Integer desiredState;
-
 	/**
 	 * Default constructor.
 	 */
@@ -53,57 +41,48 @@ public final class ScreenTimeoutSetting extends Setting {
 	}
 
 	@Override
-	public void load(final SharedPreferences p) {
-		this.desiredState = null;
-		String s = p.getString(this.getName(), null);
-		if (s != null && !s.equals(UNCHANGED)) {
-			try {
-				this.desiredState = Integer.parseInt(s);
-			} catch (NumberFormatException e) {
-				Log.e(TAG, "illegal number format: " + s, e);
-			}
-		}
+	protected int parse(final String s) {
+		return Integer.parseInt(s);
+	}
+
+	@Override
+	protected String format(final int state) {
+		return String.valueOf(state);
 	}
 
 	@Override
-	public void set(final Context context) {
-		ContentResolver cr = context.getContentResolver();
+	public void set(final Platform platform, final KeyValueStore saved) {
+		if (!this.isTouched()) {
+			Log.d(TAG, "ignore unchanged");
+			return;
+		}
+		SystemSettingsPort settings = platform.getSystemSettings();
 		// save current settings
-		Editor editor = PreferenceManager.getDefaultSharedPreferences(context)
-				.edit();
-		try {
-			int i = Settings.System.getInt(cr,
-					Settings.System.SCREEN_OFF_TIMEOUT);
-			Log.d(TAG, "current value: " + i);
-			editor.putInt(this.getResetKey(), i);
-			editor.apply();
-		} catch (SettingNotFoundException e) {
-			Log.e(TAG, "setting not found.. ", e);
+		int current = settings.getInt(SystemSettingsPort.SCREEN_OFF_TIMEOUT,
+				SystemSettingsPort.NOT_FOUND);
+		if (current == SystemSettingsPort.NOT_FOUND) {
+			Log.e(TAG, "setting not found..");
+		} else {
+			Log.d(TAG, "current value: " + current);
+			saved.putInt(this.getResetKey(), current);
 		}
 
 		// set to desired state
-		if (this.desiredState == null) {
-			Log.d(TAG, "ignore desiredState == null");
-			return;
-		}
-		int i = this.desiredState;
+		int i = this.getDesiredState();
 		if (i <= 0) {
 			Log.d(TAG, "desiredState=0, set to a really high number..");
 			i = DEFAULT * MILLIS;
 		}
 		i *= MILLIS;
-		Log.d(TAG, "set " + Settings.System.SCREEN_OFF_TIMEOUT + " to " + i);
-		Settings.System.putInt(cr, Settings.System.SCREEN_OFF_TIMEOUT, i);
+		putIntIfChanged(settings, SystemSettingsPort.SCREEN_OFF_TIMEOUT, i);
 	}
 
 	@Override
-	public void reset(final Context context) {
-		if (this.desiredState != null) {
-			SharedPreferences p = PreferenceManager
-					.getDefaultSharedPreferences(context);
-			Settings.System.putInt(context.getContentResolver(),
-					Settings.System.SCREEN_OFF_TIMEOUT,
-					p.getInt(this.getResetKey(), DEFAULT * MILLIS));
+	public void reset(final Platform platform, final KeyValueStore saved) {
+		if (this.isTouched()) {
+			putIntIfChanged(platform.getSystemSettings(),
+					SystemSettingsPort.SCREEN_OFF_TIMEOUT,
+					saved.getInt(this.getResetKey(), DEFAULT * MILLIS));
 		}
 	}
 }
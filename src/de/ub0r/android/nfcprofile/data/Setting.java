@@ -18,7 +18,7 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import de.ub0r.android.lib.Log;
+import java.util.Map;
 
 /**
  * Holding a single setting switchable by NfcReaderActivity.
@@ -36,8 +36,22 @@ public abstract class Setting implements ISetable {
 	/** Deactivate {@link Setting}. */
 	public static final String DEACTIVATE = "deactivate";
 
-	/** {@link Setting}s name in SharedPreferences. */
+	/** Lane: {@link SystemSettingsPort}. */
+	static final int LANE_SYSTEM = 0;
+	/** Lane: {@link AudioPort}. */
+	static final int LANE_AUDIO = 1;
+	/** Number of lanes. */
+	static final int LANES = 2;
+
+	/** Default deadline for applying a {@link Setting} in milliseconds. */
+	private static final long DEADLINE = 1000L;
+
+	/** {@link Setting}s name in profile's {@link KeyValueStore}. */
 	private final String name;
+	/** True, if this {@link Setting} changes anything. */
+	private boolean touched = false;
+	/** Desired state, valid if touched. */
+	private int desiredState;
 
 	/**
 	 * Set {@link Setting}s name.
@@ -78,6 +92,119 @@ public abstract class Setting implements ISetable {
 		return this.name;
 	}
 
+	@Override
+	public final void load(final KeyValueStore p) {
+		this.touched = false;
+		String s = p.getString(this.name, null);
+		if (s != null && !s.equals(UNCHANGED)) {
+			try {
+				this.desiredState = this.parse(s);
+				this.touched = true;
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "illegal value for " + this.name + ": " + s, e);
+			}
+		}
+	}
+
+	/**
+	 * Save desired state to a profile's {@link KeyValueStore} as loaded by
+	 * load().
+	 * 
+	 * @param e
+	 *            {@link KeyValueStore}
+	 */
+	final void save(final KeyValueStore e) {
+		e.putString(this.name, this.getValue());
+	}
+
+	/**
+	 * Save desired state to a {@link Map} as returned by
+	 * {@link KeyValueStore#getAll()}.
+	 * 
+	 * @param m
+	 *            {@link Map}
+	 */
+	final void save(final Map<String, Object> m) {
+		m.put(this.name, this.getValue());
+	}
+
+	/**
+	 * @return desired state as saved to profile's {@link KeyValueStore}
+	 */
+	private String getValue() {
+		if (this.touched) {
+			return this.format(this.desiredState);
+		}
+		return UNCHANGED;
+	}
+
+	/**
+	 * Parse desired state from its stored value.
+	 * 
+	 * @param s
+	 *            value, not {@link #UNCHANGED}
+	 * @return desired state
+	 * @throws IllegalArgumentException
+	 *             unknown value
+	 */
+	protected abstract int parse(final String s);
+
+	/**
+	 * Format desired state as stored value.
+	 * 
+	 * @param state
+	 *            desired state
+	 * @return value as understood by parse()
+	 */
+	protected abstract String format(final int state);
+
+	/**
+	 * @return true, if this {@link Setting} changes anything
+	 */
+	protected final boolean isTouched() {
+		return this.touched;
+	}
+
+	/**
+	 * @return desired state, valid if isTouched()
+	 */
+	protected final int getDesiredState() {
+		return this.desiredState;
+	}
+
+	/**
+	 * @param state
+	 *            desired state
+	 */
+	final void setDesiredState(final int state) {
+		this.desiredState = state;
+		this.touched = true;
+	}
+
+	/**
+	 * Keep this {@link Setting} unchanged.
+	 */
+	final void clearDesiredState() {
+		this.touched = false;
+	}
+
+	/**
+	 * Get the lane this {@link Setting} is applied in. {@link Setting}s in the
+	 * same lane are applied one after another.
+	 * 
+	 * @return lane
+	 */
+	int getLane() {
+		return LANE_SYSTEM;
+	}
+
+	/**
+	 * @return max time in milliseconds for applying this {@link Setting}
+	 */
+	long getDeadline() {
+		return DEADLINE;
+	}
+
 	/**
 	 * @return reset key
 	 */
@@ -93,4 +220,27 @@ public abstract class Setting implements ISetable {
 	protected final String getResetKey(final String postfix) {
 		return "RESET_" + this.name + "_" + postfix;
 	}
+
+	/**
+	 * Write a {@link SystemSettingsPort} value unless it holds that value
+	 * already.
+	 * 
+	 * @param settings
+	 *            {@link SystemSettingsPort}
+	 * @param name
+	 *            setting's name
+	 * @param value
+	 *            desired value
+	 * @return true, if value was written
+	 */
+	protected static boolean putIntIfChanged(
+			final SystemSettingsPort settings, final String name,
+			final int value) {
+		if (settings.getInt(name, SystemSettingsPort.NOT_FOUND) == value) {
+			Log.d(TAG, "unchanged " + name + "=" + value);
+			return false;
+		}
+		Log.d(TAG, "set " + name + " to " + value);
+		return settings.putInt(name, value);
+	}
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+/**
+ * Port to system wide settings as stored in Settings.System. Constants have
+ * the values of their counterparts in Settings.System.
+ * 
+ * @author flx
+ */
+public interface SystemSettingsPort {
+	/** Returned by getInt() for unknown settings. */
+	int NOT_FOUND = Integer.MIN_VALUE;
+
+	/** Setting: airplane mode, 1 if on. */
+	String AIRPLANE_MODE_ON = "airplane_mode_on";
+	/** Setting: radios switched off by airplane mode. */
+	String AIRPLANE_MODE_RADIOS = "airplane_mode_radios";
+	/** Radio: NFC. */
+	String RADIO_NFC = "nfc";
+	/** Setting: screen off timeout in milliseconds. */
+	String SCREEN_OFF_TIMEOUT = "screen_off_timeout";
+	/** Setting: screen brightness. */
+	String SCREEN_BRIGHTNESS = "screen_brightness";
+	/** Setting: screen brightness mode. */
+	String SCREEN_BRIGHTNESS_MODE = "screen_brightness_mode";
+	/** Screen brightness mode: manual. */
+	int SCREEN_BRIGHTNESS_MODE_MANUAL = 0;
+	/** Screen brightness mode: automatic. */
+	int SCREEN_BRIGHTNESS_MODE_AUTOMATIC = 1;
+
+	/**
+	 * @param name
+	 *            setting's name
+	 * @param def
+	 *            default value
+	 * @return setting's value, def if not found
+	 */
+	int getInt(final String name, final int def);
+
+	/**
+	 * @param name
+	 *            setting's name
+	 * @return setting's value, null if not found
+	 */
+	String getString(final String name);
+
+	/**
+	 * @param name
+	 *            setting's name
+	 * @param value
+	 *            new value
+	 * @return true, if value was written
+	 */
+	boolean putInt(final String name, final int value);
+
+	/**
+	 * @param name
+	 *            setting's name
+	 * @param value
+	 *            new value
+	 * @return true, if value was written
+	 */
+	boolean putString(final String name, final String value);
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+/**
+ * Encode {@link Profile} keys as URIs written to NFC tags.
+ * 
+ * Legacy format: nfcprofile://, followed by the key.
+ * 
+ * Compact format: nfcprofile:, a version character and the key's 16 bytes
+ * as unpadded base64url. Keys which are not 32 hex digits are written in
+ * legacy format.
+ * 
+ * @author flx
+ */
+public final class TagKey {
+	/** URI scheme. */
+	public static final String SCHEME = "nfcprofile";
+	/** Prefix of legacy URIs. */
+	public static final String LEGACY_PREFIX = SCHEME + "://";
+	/** Compact format's version. */
+	private static final char VERSION = '1';
+	/** Prefix of compact URIs. */
+	private static final String COMPACT_PREFIX = SCHEME + ":" + VERSION;
+
+	/** Bytes of binary key. */
+	private static final int KEY_BYTES = 16;
+	/** Bits per hex digit. */
+	private static final int HEX_BITS = 4;
+	/** Mask of a hex digit. */
+	private static final int HEX_MASK = 0xf;
+	/** Radix of hex digits. */
+	private static final int HEX = 16;
+	/** Hex digits. */
+	private static final char[] HEX_DIGITS = "0123456789abcdef"
+			.toCharArray();
+	/** Digits of base64url. */
+	private static final String BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+			+ "abcdefghijklmnopqrstuvwxyz0123456789-_";
+	/** Bits per base64 digit. */
+	private static final int BASE64_BITS = 6;
+	/** Mask of a base64 digit. */
+	private static final int BASE64_MASK = 0x3f;
+	/** Bits per byte. */
+	private static final int BYTE_BITS = 8;
+	/** Mask of a byte. */
+	private static final int BYTE_MASK = 0xff;
+	/** Digits of an unpadded base64url binary key. */
+	private static final int KEY_DIGITS = (KEY_BYTES * BYTE_BITS
+			+ BASE64_BITS - 1) / BASE64_BITS;
+
+	/**
+	 * No instances.
+	 */
+	private TagKey() {
+		// nothing to do
+	}
+
+	/**
+	 * Get URI for a key.
+	 * 
+	 * @param key
+	 *            profile's key
+	 * @param compact
+	 *            use compact format if possible
+	 * @return URI
+	 */
+	public static String toUri(final String key, final boolean compact) {
+		if (compact) {
+			byte[] b = fromHex(key);
+			if (b != null) {
+				return COMPACT_PREFIX + toBase64(b);
+			}
+		}
+		return LEGACY_PREFIX + key;
+	}
+
+	/**
+	 * Get key from a URI in either format.
+	 * 
+	 * @param u
+	 *            URI read from tag, may be null
+	 * @return profile's key, null if u is no valid URI
+	 */
+	public static String fromUri(final String u) {
+		if (u == null) {
+			return null;
+		}
+		if (u.startsWith(LEGACY_PREFIX)) {
+			// the key is the URI's host
+			int end = LEGACY_PREFIX.length();
+			while (end < u.length() && "/?#".indexOf(u.charAt(end)) < 0) {
+				++end;
+			}
+			String key = u.substring(LEGACY_PREFIX.length(), end);
+			return Profile.isWellFormedKey(key) ? key : null;
+		}
+		if (!u.startsWith(COMPACT_PREFIX)
+				|| u.length() != COMPACT_PREFIX.length() + KEY_DIGITS) {
+			return null;
+		}
+		byte[] b = fromBase64(u, COMPACT_PREFIX.length(), KEY_BYTES);
+		return b == null ? null : toHex(b);
+	}
+
+	/**
+	 * Parse a key made of lower case hex digits.
+	 * 
+	 * @param key
+	 *            key
+	 * @return binary key, null if key is no such key
+	 */
+	private static byte[] fromHex(final String key) {
+		if (key.length() != KEY_BYTES * 2) {
+			return null;
+		}
+		byte[] b = new byte[KEY_BYTES];
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			int d = Character.digit(c, HEX);
+			if (d < 0 || Character.isUpperCase(c)) {
+				// would not survive the round trip
+				return null;
+			}
+			b[i / 2] |= d << (i % 2 == 0 ? HEX_BITS : 0);
+		}
+		return b;
+	}
+
+	/**
+	 * @param b
+	 *            binary key
+	 * @return lower case hex digits
+	 */
+	private static String toHex(final byte[] b) {
+		char[] c = new char[b.length * 2];
+		for (int i = 0; i < b.length; i++) {
+			c[i * 2] = HEX_DIGITS[(b[i] >>> HEX_BITS) & HEX_MASK];
+			c[i * 2 + 1] = HEX_DIGITS[b[i] & HEX_MASK];
+		}
+		return new String(c);
+	}
+
+	/**
+	 * @param b
+	 *            binary key
+	 * @return unpadded base64url
+	 */
+	private static String toBase64(final byte[] b) {
+		StringBuilder sb = new StringBuilder(KEY_DIGITS);
+		int bits = 0;
+		int n = 0;
+		for (byte x : b) {
+			bits = (bits << BYTE_BITS) | (x & BYTE_MASK);
+			n += BYTE_BITS;
+			while (n >= BASE64_BITS) {
+				n -= BASE64_BITS;
+				sb.append(BASE64_DIGITS.charAt((bits >>> n) & BASE64_MASK));
+			}
+		}
+		if (n > 0) {
+			sb.append(BASE64_DIGITS.charAt((bits << (BASE64_BITS - n))
+					& BASE64_MASK));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decode unpadded base64url.
+	 * 
+	 * @param s
+	 *            {@link String} holding the digits up to its end
+	 * @param offset
+	 *            offset of first digit
+	 * @param length
+	 *            number of bytes to decode
+	 * @return binary key, null if s holds other digits or unused bits are set
+	 */
+	private static byte[] fromBase64(final String s, final int offset,
+			final int length) {
+		byte[] b = new byte[length];
+		int bits = 0;
+		int n = 0;
+		int j = 0;
+		for (int i = offset; i < s.length(); i++) {
+			int d = BASE64_DIGITS.indexOf(s.charAt(i));
+			if (d < 0) {
+				return null;
+			}
+			bits = (bits << BASE64_BITS) | d;
+			n += BASE64_BITS;
+			if (n >= BYTE_BITS) {
+				if (j == length) {
+					return null;
+				}
+				n -= BYTE_BITS;
+				b[j++] = (byte) (bits >>> n);
+			}
+		}
+		if (j != length || (bits & ((1 << n) - 1)) != 0) {
+			// would not survive the round trip
+			return null;
+		}
+		return b;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.nio.charset.Charset;
+
+/**
+ * {@link Profile} carried by an NFC tag as NFC Forum external type record
+ * next to its key. The record itself is built and found by the ui package.
+ * 
+ * Payload: version byte, length of name, name as UTF-8, then the
+ * {@link ProfilePlan}'s binary representation.
+ * 
+ * @author flx
+ */
+public final class TagProfile {
+	/** Record's type. */
+	public static final String RECORD_TYPE = "ub0r.de:nfcprofile";
+	/** Format version. */
+	private static final byte VERSION = 1;
+	/** Bytes of header: version and length of name. */
+	private static final int HEADER_SIZE = 2;
+	/** Max length of name in bytes. */
+	private static final int MAX_NAME = 0xff;
+	/** Encoding of name. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Profile's name. */
+	private final String name;
+	/** Profile's {@link ProfilePlan}. */
+	private final ProfilePlan plan;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param n
+	 *            name
+	 * @param p
+	 *            {@link ProfilePlan}
+	 */
+	public TagProfile(final String n, final ProfilePlan p) {
+		this.name = n;
+		this.plan = p;
+	}
+
+	/**
+	 * @return profile's name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return profile's {@link ProfilePlan}
+	 */
+	public ProfilePlan getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * @return binary representation
+	 */
+	public byte[] toByteArray() {
+		String n = this.name == null ? "" : this.name;
+		byte[] nb = n.getBytes(UTF8);
+		while (nb.length > MAX_NAME) {
+			n = n.substring(0, n.length() - 1);
+			nb = n.getBytes(UTF8);
+		}
+		byte[] pb = this.plan.toByteArray();
+		byte[] b = new byte[HEADER_SIZE + nb.length + pb.length];
+		b[0] = VERSION;
+		b[1] = (byte) nb.length;
+		System.arraycopy(nb, 0, b, HEADER_SIZE, nb.length);
+		System.arraycopy(pb, 0, b, HEADER_SIZE + nb.length, pb.length);
+		return b;
+	}
+
+	/**
+	 * Decode binary representation.
+	 * 
+	 * @param b
+	 *            buffer
+	 * @return {@link TagProfile}
+	 * @throws IllegalArgumentException
+	 *             invalid data
+	 */
+	public static TagProfile fromBytes(final byte[] b) {
+		if (b.length < HEADER_SIZE || b[0] != VERSION) {
+			throw new IllegalArgumentException("unknown format");
+		}
+		int l = b[1] & MAX_NAME;
+		int pos = HEADER_SIZE + l;
+		if (pos > b.length) {
+			throw new IllegalArgumentException("invalid length: " + l);
+		}
+		return new TagProfile(new String(b, HEADER_SIZE, l, UTF8),
+				ProfilePlan.fromBytes(b, pos, b.length - pos));
+	}
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.data;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Trace time spent between a tag's tap and the applied {@link Profile}.
+ * Spans are kept in a fixed size ring buffer, their durations are counted in
+ * one histogram per stage. Optionally spans are emitted as android.os.Trace
+ * sections on API 18+.
+ * 
+ * @author flx
+ */
+public final class TapTracer {
+	/** Tag for Logging. */
+	private static final String TAG = "TapTracer";
+
+	/** Stage: intent received and handed to the tap handler. */
+	public static final int STAGE_INTENT = 0;
+	/** Stage: key validated. */
+	public static final int STAGE_VALIDATED = 1;
+	/** Stage: {@link Profile} loaded. */
+	public static final int STAGE_LOADED = 2;
+	/** Stage: a single {@link Setting} applied. */
+	public static final int STAGE_SETTING = 3;
+	/** Stage: saved state persisted. */
+	public static final int STAGE_PERSISTED = 4;
+	/** Stage: vibration feedback. */
+	public static final int STAGE_FEEDBACK = 5;
+	/** Stage: whole tap. */
+	public static final int STAGE_TOTAL = 6;
+	/** Number of stages. */
+	public static final int STAGES = 7;
+	/** Stages' names. */
+	private static final String[] STAGE_NAMES = new String[] { "intent",
+			"validated", "loaded", "setting", "persisted", "feedback",
+			"total" };
+
+	/** Size of ring buffer, power of two. */
+	private static final int SPANS = 256;
+	/** Nanoseconds per microsecond. */
+	private static final long NANOS = 1000L;
+	/** Max length of a trace section's name. */
+	private static final int MAX_SECTION_NAME = 127;
+	/** Bit set in begin()'s return value if a trace section was begun. */
+	private static final long SECTION_BIT = 1L;
+
+	/** A single tap. */
+	public static final class Tap {
+		/** Tap's id. */
+		private final long id;
+		/** Tap's start in nanoseconds. */
+		private final long start;
+
+		/**
+		 * Default constructor.
+		 * 
+		 * @param i
+		 *            id
+		 * @param s
+		 *            start
+		 */
+		private Tap(final long i, final long s) {
+			this.id = i;
+			this.start = s;
+		}
+	}
+
+	/** A finished span. */
+	public static final class Span {
+		/** Tap's id. */
+		public final long tap;
+		/** Stage. */
+		public final int stage;
+		/** Name, e.g. {@link Setting}'s name; may be null. */
+		public final String name;
+		/** Offset from tap's start in microseconds. */
+		public final long offset;
+		/** Duration in microseconds. */
+		public final long duration;
+
+		/**
+		 * Default constructor.
+		 * 
+		 * @param t
+		 *            tap's id
+		 * @param st
+		 *            stage
+		 * @param n
+		 *            name
+		 * @param o
+		 *            offset
+		 * @param d
+		 *            duration
+		 */
+		private Span(final long t, final int st, final String n, final long o,
+				final long d) {
+			this.tap = t;
+			this.stage = st;
+			this.name = n;
+			this.offset = o;
+			this.duration = d;
+		}
+	}
+
+	/**
+	 * Histogram with logarithmic buckets, each split in linear sub buckets.
+	 * Relative error of recorded values is below 1 / SUB.
+	 */
+	public static final class Histogram {
+		/** Bits for sub buckets. */
+		private static final int SUB_BITS = 3;
+		/** Number of sub buckets. */
+		private static final int SUB = 1 << SUB_BITS;
+		/** Number of buckets covering all int values. */
+		private static final int BUCKETS = (Integer.SIZE - SUB_BITS) * SUB;
+
+		/** Counts per bucket. */
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		/** Total count. */
+		private final AtomicLong count = new AtomicLong();
+		/** Max recorded value. */
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * @param v
+		 *            value
+		 * @return bucket's index
+		 */
+		private static int indexOf(final long v) {
+			int i = (int) Math.min(Math.max(v, 0L), Integer.MAX_VALUE);
+			if (i < 2 * SUB) {
+				return i;
+			}
+			int shift = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(i)
+					- SUB_BITS;
+			return (shift + 1) * SUB + (i >>> shift) - SUB;
+		}
+
+		/**
+		 * @param index
+		 *            bucket's index
+		 * @return highest value of bucket
+		 */
+		private static long highestOf(final int index) {
+			if (index < 2 * SUB) {
+				return index;
+			}
+			int shift = index / SUB - 1;
+			long lowest = (long) (index % SUB + SUB) << shift;
+			return lowest + (1L << shift) - 1;
+		}
+
+		/**
+		 * @param v
+		 *            value
+		 */
+		void record(final long v) {
+			this.counts.incrementAndGet(indexOf(v));
+			this.count.incrementAndGet();
+			long m = this.max.get();
+			while (v > m && !this.max.compareAndSet(m, v)) {
+				m = this.max.get();
+			}
+		}
+
+		/**
+		 * @return number of recorded values
+		 */
+		public long getCount() {
+			return this.count.get();
+		}
+
+		/**
+		 * @return max recorded value
+		 */
+		public long getMax() {
+			return this.max.get();
+		}
+
+		/**
+		 * @param percentile
+		 *            percentile, 0 - 100
+		 * @return highest value equivalent to the value at percentile
+		 */
+		public long getValueAt(final double percentile) {
+			long total = this.count.get();
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1L, (long) Math.ceil(percentile / 100d
+					* total));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += this.counts.get(i);
+				if (seen >= rank) {
+					return Math.min(highestOf(i), this.max.get());
+				}
+			}
+			return this.max.get();
+		}
+
+		/**
+		 * Drop all values.
+		 */
+		void clear() {
+			for (int i = 0; i < BUCKETS; i++) {
+				this.counts.set(i, 0);
+			}
+			this.count.set(0);
+			this.max.set(0);
+		}
+	}
+
+	/** Last tap's id. */
+	private static final AtomicLong TAPS = new AtomicLong();
+	/** Ring buffer of recent spans. */
+	private static final AtomicReferenceArray<Span> RING = new AtomicReferenceArray<Span>(
+			SPANS);
+	/** Next write position in RING. */
+	private static final AtomicInteger NEXT = new AtomicInteger();
+	/** Histograms of durations in microseconds per stage. */
+	private static final Histogram[] HISTOGRAMS = createHistograms();
+
+	/** Emit trace sections. */
+	private static volatile boolean sections = false;
+	/** android.os.Trace.beginSection(String). */
+	private static Method beginSection;
+	/** android.os.Trace.endSection(). */
+	private static Method endSection;
+
+	/**
+	 * No instances.
+	 */
+	private TapTracer() {
+		// nothing to do
+	}
+
+	/**
+	 * @return one {@link Histogram} per stage
+	 */
+	private static Histogram[] createHistograms() {
+		Histogram[] ret = new Histogram[STAGES];
+		for (int i = 0; i < STAGES; i++) {
+			ret[i] = new Histogram();
+		}
+		return ret;
+	}
+
+	/**
+	 * Enable or disable emitting android.os.Trace sections. Ignored below API
+	 * 18.
+	 * 
+	 * @param enabled
+	 *            true to emit trace sections
+	 */
+	public static synchronized void setTraceSections(final boolean enabled) {
+		if (enabled && beginSection == null) {
+			try {
+				// added in API 18
+				Class<?> c = Class.forName("android.os.Trace");
+				beginSection = c.getMethod("beginSection", String.class);
+				endSection = c.getMethod("endSection");
+			} catch (ClassNotFoundException e) {
+				Log.w(TAG, "no android.os.Trace");
+			} catch (Exception e) {
+				Log.e(TAG, "no android.os.Trace", e);
+			}
+		}
+		sections = enabled && beginSection != null;
+	}
+
+	/**
+	 * @return true, if trace sections are emitted
+	 */
+	public static boolean isTraceSections() {
+		return sections;
+	}
+
+	/**
+	 * Start a new tap.
+	 * 
+	 * @return {@link Tap}
+	 */
+	public static Tap startTap() {
+		return startTap(System.nanoTime());
+	}
+
+	/**
+	 * Start a new tap.
+	 * 
+	 * @param start
+	 *            System.nanoTime() when the tap was received
+	 * @return {@link Tap}
+	 */
+	public static Tap startTap(final long start) {
+		return new Tap(TAPS.incrementAndGet(), start);
+	}
+
+	/**
+	 * Begin a span.
+	 * 
+	 * @param stage
+	 *            stage
+	 * @param name
+	 *            name, may be null
+	 * @return start time to pass to end(), its lowest bit tells end() to end
+	 *         a trace section
+	 */
+	public static long begin(final int stage, final String name) {
+		boolean section = sections;
+		if (section) {
+			String s = STAGE_NAMES[stage];
+			if (name != null) {
+				s += ":" + name;
+			}
+			if (s.length() > MAX_SECTION_NAME) {
+				s = s.substring(0, MAX_SECTION_NAME);
+			}
+			invoke(beginSection, s);
+		}
+		long start = System.nanoTime() & ~SECTION_BIT;
+		return section ? start | SECTION_BIT : start;
+	}
+
+	/**
+	 * End a span started by begin(), on the same thread.
+	 * 
+	 * @param tap
+	 *            {@link Tap}, nothing is recorded if null
+	 * @param stage
+	 *            stage
+	 * @param name
+	 *            name, may be null
+	 * @param start
+	 *            start time returned by begin()
+	 */
+	public static void end(final Tap tap, final int stage, final String name,
+			final long start) {
+		long now = System.nanoTime();
+		// sections may have been switched meanwhile
+		if ((start & SECTION_BIT) != 0) {
+			invoke(endSection);
+		}
+		if (tap != null) {
+			record(tap, stage, name, start & ~SECTION_BIT, now);
+		}
+	}
+
+	/**
+	 * Mark a tap as received by its handler, records the time since the tap
+	 * was started as intent stage.
+	 * 
+	 * @param tap
+	 *            {@link Tap}, may be null
+	 */
+	public static void received(final Tap tap) {
+		if (tap != null) {
+			record(tap, STAGE_INTENT, null, tap.start, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Finish a tap, records its total time.
+	 * 
+	 * @param tap
+	 *            {@link Tap}, may be null
+	 */
+	public static void finish(final Tap tap) {
+		if (tap != null) {
+			record(tap, STAGE_TOTAL, null, tap.start, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Record a span.
+	 * 
+	 * @param tap
+	 *            {@link Tap}
+	 * @param stage
+	 *            stage
+	 * @param name
+	 *            name, may be null
+	 * @param start
+	 *            start time in nanoseconds
+	 * @param end
+	 *            end time in nanoseconds
+	 */
+	private static void record(final Tap tap, final int stage,
+			final String name, final long start, final long end) {
+		long d = (end - start) / NANOS;
+		HISTOGRAMS[stage].record(d);
+		Span s = new Span(tap.id, stage, name, (start - tap.start) / NANOS, d);
+		RING.set(NEXT.getAndIncrement() & (SPANS - 1), s);
+	}
+
+	/**
+	 * Invoke a static method of android.os.Trace.
+	 * 
+	 * @param m
+	 *            {@link Method}
+	 * @param args
+	 *            arguments
+	 */
+	private static void invoke(final Method m, final Object... args) {
+		try {
+			m.invoke(null, args);
+		} catch (Exception e) {
+			Log.e(TAG, "error calling " + m.getName(), e);
+			sections = false;
+		}
+	}
+
+	/**
+	 * @param stage
+	 *            stage
+	 * @return stage's name
+	 */
+	public static String getStageName(final int stage) {
+		return STAGE_NAMES[stage];
+	}
+
+	/**
+	 * @param stage
+	 *            stage
+	 * @return {@link Histogram} of durations in microseconds
+	 */
+	public static Histogram getHistogram(final int stage) {
+		return HISTOGRAMS[stage];
+	}
+
+	/**
+	 * @return recent spans, oldest first
+	 */
+	public static List<Span> getSpans() {
+		int next = NEXT.get();
+		ArrayList<Span> ret = new ArrayList<Span>(SPANS);
+		for (int i = 0; i < SPANS; i++) {
+			Span s = RING.get((next + i) & (SPANS - 1));
+			if (s != null) {
+				ret.add(s);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Drop all spans and histograms.
+	 */
+	public static void clear() {
+		for (int i = 0; i < SPANS; i++) {
+			RING.set(i, null);
+		}
+		for (Histogram h : HISTOGRAMS) {
+			h.clear();
+		}
+	}
+
+	/**
+	 * Export recent spans as CSV.
+	 * 
+	 * @return CSV with header line
+	 */
+	public static String toCsv() {
+		StringBuilder sb = new StringBuilder(
+				"tap,stage,name,offset_us,duration_us\n");
+		for (Span s : getSpans()) {
+			sb.append(s.tap).append(',');
+			sb.append(STAGE_NAMES[s.stage]).append(',');
+			if (s.name != null) {
+				sb.append(s.name);
+			}
+			sb.append(',').append(s.offset);
+			sb.append(',').append(s.duration).append('\n');
+		}
+		return sb.toString();
+	}
+}
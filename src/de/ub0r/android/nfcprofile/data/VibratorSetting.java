@@ -18,13 +18,6 @@
  */
 package de.ub0r.android.nfcprofile.data;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.media.AudioManager;
-import android.preference.PreferenceManager;
-import de.ub0r.android.lib.Log;
-
 /**
  * {@link Setting} switching ring mode.
  * 
@@ -39,15 +32,13 @@ public final class VibratorSetting extends Setting {
 
 	/** Type of ringer. */
 	private final int vibratorType;
-	/** Desired state. */
-	private String desiredState;
 
 	/**
 	 * Default constructor.
 	 * 
 	 * @param vt
-	 *            AudioManager.VIBRATE_TYPE_RINGER or
-	 *            AudioManager.VIBRATE_TYPE_NOTIFICATON
+	 *            AudioPort.VIBRATE_TYPE_RINGER or
+	 *            AudioPort.VIBRATE_TYPE_NOTIFICATION
 	 */
 	public VibratorSetting(final int vt) {
 		super(vt);
@@ -55,53 +46,78 @@ public final class VibratorSetting extends Setting {
 	}
 
 	@Override
-	public void load(final SharedPreferences p) {
-		this.desiredState = p.getString(this.getName(), null);
-		if (this.desiredState == null || this.desiredState.equals(UNCHANGED)) {
-			this.desiredState = null;
+	protected int parse(final String s) {
+		if (s.equals(ACTIVATE)) {
+			return AudioPort.VIBRATE_SETTING_ON;
+		} else if (s.equals(DEACTIVATE)) {
+			return AudioPort.VIBRATE_SETTING_OFF;
+		} else if (s.equals(SILENT)) {
+			return AudioPort.VIBRATE_SETTING_ONLY_SILENT;
+		}
+		throw new IllegalArgumentException("unknown state: " + s);
+	}
+
+	@Override
+	protected String format(final int state) {
+		switch (state) {
+		case AudioPort.VIBRATE_SETTING_ON:
+			return ACTIVATE;
+		case AudioPort.VIBRATE_SETTING_OFF:
+			return DEACTIVATE;
+		default:
+			return SILENT;
 		}
 	}
 
 	@Override
-	public void set(final Context context) {
-		AudioManager amgr = (AudioManager) context
-				.getSystemService(Context.AUDIO_SERVICE);
+	int getLane() {
+		return LANE_AUDIO;
+	}
+
+	@Override
+	public void set(final Platform platform, final KeyValueStore saved) {
+		if (!this.isTouched()) {
+			Log.d(TAG, "ignore unchanged");
+			return;
+		}
+		AudioPort amgr = platform.getAudio();
 		// save current settings
-		Editor e = PreferenceManager.getDefaultSharedPreferences(context)
-				.edit();
-		e.putInt(this.getResetKey(), amgr.getVibrateSetting(this.vibratorType));
-		e.apply();
+		int current = amgr.getVibrateSetting(this.vibratorType);
+		saved.putInt(this.getResetKey(), current);
 
 		// set to desired state
-		if (this.desiredState == null) {
-			Log.d(TAG, "ignore desiredState == null");
-		} else if (this.desiredState.equals(ACTIVATE)) {
-			Log.i(TAG, "set on");
-			amgr.setVibrateSetting(this.vibratorType,
-					AudioManager.VIBRATE_SETTING_ON);
-		} else if (this.desiredState.equals(DEACTIVATE)) {
-			Log.i(TAG, "set off");
-			amgr.setVibrateSetting(this.vibratorType,
-					AudioManager.VIBRATE_SETTING_OFF);
-		} else if (this.desiredState.equals(SILENT)) {
-			Log.i(TAG, "set on only when silent");
-			amgr.setVibrateSetting(this.vibratorType,
-					AudioManager.VIBRATE_SETTING_ONLY_SILENT);
-		} else {
-			Log.e(TAG, "unknown desired state");
-		}
+		int setting = this.getDesiredState();
+		Log.i(TAG, "set " + this.format(setting));
+		this.setVibrateSetting(amgr, current, setting);
 	}
 
 	@Override
-	public void reset(final Context context) {
-		if (this.desiredState != null) {
-			AudioManager amgr = (AudioManager) context
-					.getSystemService(Context.AUDIO_SERVICE);
-			SharedPreferences p = PreferenceManager
-					.getDefaultSharedPreferences(context);
-			amgr.setVibrateSetting(this.vibratorType, p.getInt(
-					this.getResetKey(),
-					AudioManager.VIBRATE_SETTING_ONLY_SILENT));
+	public void reset(final Platform platform, final KeyValueStore saved) {
+		if (this.isTouched()) {
+			AudioPort amgr = platform.getAudio();
+			this.setVibrateSetting(amgr,
+					amgr.getVibrateSetting(this.vibratorType), saved.getInt(
+							this.getResetKey(),
+							AudioPort.VIBRATE_SETTING_ONLY_SILENT));
+		}
+	}
+
+	/**
+	 * Set vibrate setting unless it is set already.
+	 * 
+	 * @param amgr
+	 *            {@link AudioPort}
+	 * @param current
+	 *            current vibrate setting
+	 * @param setting
+	 *            desired vibrate setting
+	 */
+	private void setVibrateSetting(final AudioPort amgr, final int current,
+			final int setting) {
+		if (current == setting) {
+			Log.d(TAG, "unchanged vibrate setting: " + setting);
+		} else {
+			amgr.setVibrateSetting(this.vibratorType, setting);
 		}
 	}
 }
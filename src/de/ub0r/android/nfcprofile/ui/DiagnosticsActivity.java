@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.ui;
+
+import java.util.Locale;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import de.ub0r.android.nfcprofile.NfcProfileBackupAgent;
+import de.ub0r.android.nfcprofile.R;
+import de.ub0r.android.nfcprofile.TapService;
+import de.ub0r.android.nfcprofile.data.TapTracer;
+
+/**
+ * Show time spent applying {@link de.ub0r.android.nfcprofile.data.Profile}s
+ * as traced by {@link TapTracer}.
+ * 
+ * @author flx
+ */
+public final class DiagnosticsActivity extends Activity {
+	/** Preference name: emit android.os.Trace sections. */
+	public static final String PREF_TRACE_SECTIONS = "trace_sections";
+
+	/** Microseconds per millisecond. */
+	private static final double MILLIS = 1000d;
+	/** Percentile: median. */
+	private static final double P50 = 50d;
+	/** Percentile: 90th. */
+	private static final double P90 = 90d;
+	/** Percentile: 99th. */
+	private static final double P99 = 99d;
+
+	@Override
+	public void onCreate(final Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		this.setContentView(R.layout.diagnostics_activity);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		this.update();
+	}
+
+	/**
+	 * Show current histograms and tap counters.
+	 */
+	private void update() {
+		TextView tv = (TextView) this.findViewById(R.id.diagnostics);
+		String counters = this.getString(R.string.tap_counters,
+				TapService.getDropped(), TapService.getCoalesced());
+		if (TapTracer.getHistogram(TapTracer.STAGE_TOTAL).getCount() == 0) {
+			tv.setText(this.getString(R.string.no_traces) + "\n\n"
+					+ counters);
+			return;
+		}
+		StringBuilder sb = new StringBuilder(String.format(Locale.US,
+				"%-10s %6s %7s %7s %7s %7s\n", "ms", "n", "p50", "p90",
+				"p99", "max"));
+		for (int i = 0; i < TapTracer.STAGES; i++) {
+			TapTracer.Histogram h = TapTracer.getHistogram(i);
+			sb.append(String.format(Locale.US,
+					"%-10s %6d %7.1f %7.1f %7.1f %7.1f\n",
+					TapTracer.getStageName(i), h.getCount(),
+					h.getValueAt(P50) / MILLIS, h.getValueAt(P90) / MILLIS,
+					h.getValueAt(P99) / MILLIS, h.getMax() / MILLIS));
+		}
+		sb.append('\n').append(counters);
+		tv.setText(sb);
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(final Menu menu) {
+		this.getMenuInflater().inflate(R.menu.diagnostics_activity, menu);
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(final Menu menu) {
+		// set from preferences at start, no disk read
+		menu.findItem(R.id.trace_sections).setChecked(
+				TapTracer.isTraceSections());
+		return super.onPrepareOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.export_traces:
+			Intent intent = new Intent(Intent.ACTION_SEND);
+			intent.setType("text/csv");
+			intent.putExtra(Intent.EXTRA_TEXT, TapTracer.toCsv());
+			this.startActivity(Intent.createChooser(intent,
+					this.getString(R.string.export_traces)));
+			return true;
+		case R.id.clear_traces:
+			TapTracer.clear();
+			TapService.clearCounters();
+			this.update();
+			return true;
+		case R.id.trace_sections:
+			boolean enabled = !item.isChecked();
+			item.setChecked(enabled);
+			PreferenceManager.getDefaultSharedPreferences(this).edit()
+					.putBoolean(PREF_TRACE_SECTIONS, enabled).apply();
+			NfcProfileBackupAgent.requestBackup(this);
+			TapTracer.setTraceSections(enabled);
+			return true;
+		default:
+			return super.onOptionsItemSelected(item);
+		}
+	}
+}
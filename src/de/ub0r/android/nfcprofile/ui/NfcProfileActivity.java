@@ -18,30 +18,35 @@
  */
 package de.ub0r.android.nfcprofile.ui;
 
-import android.app.backup.BackupManager;
+import java.util.List;
+
+import android.app.ListActivity;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.Preference;
-import android.preference.Preference.OnPreferenceClickListener;
-import android.preference.PreferenceActivity;
-import android.preference.PreferenceCategory;
 import android.preference.PreferenceManager;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.TextView;
 import de.ub0r.android.lib.Log;
-import de.ub0r.android.nfcprofile.NfcProfileBackupAgent;
 import de.ub0r.android.nfcprofile.R;
+import de.ub0r.android.nfcprofile.data.AndroidPlatform;
 import de.ub0r.android.nfcprofile.data.Profile;
 
 /**
- * Default Activity showing preferences and list of profiles.
+ * Default Activity showing list of profiles.
  * 
  * @author flx
  */
-public final class NfcProfileActivity extends PreferenceActivity implements
-		OnPreferenceClickListener {
+public final class NfcProfileActivity extends ListActivity {
 	/** Tag for Logging. */
 	private static final String TAG = "main";
-	/** Key prefix. */
-	private static final String PREFIX = "profile-";
+
+	/** {@link ProfileAdapter}. */
+	private ProfileAdapter adapter;
 
 	/**
 	 * {@inheritDoc}
@@ -50,59 +55,84 @@ public final class NfcProfileActivity extends PreferenceActivity implements
 	public void onCreate(final Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		this.setTitle(R.string.app_name);
-		this.addPreferencesFromResource(R.xml.nfc_profile_activity);
-		Preference p = this.findPreference("add_profile");
-		p.setOnPreferenceClickListener(this);
+		this.setContentView(R.layout.nfc_profile_activity);
+		this.adapter = new ProfileAdapter(this);
+		this.setListAdapter(this.adapter);
 	}
 
 	@Override
 	protected void onResume() {
 		super.onResume();
-		PreferenceCategory ps = (PreferenceCategory) this
-				.findPreference("profiles");
-		int l = ps.getPreferenceCount();
-		for (int i = l - 1; i > 0; i--) {
-			ps.removePreference(ps.getPreference(i));
-		}
-		String current = PreferenceManager.getDefaultSharedPreferences(this)
-				.getString(Profile.CURRENT_PROFILE, null);
-		for (String[] k : Profile.getValidKeys(this)) {
-			Preference profile = new Preference(this);
-			profile.setKey(PREFIX + k[0]);
-			profile.setTitle(k[1]);
-			Log.d(TAG, "test: " + current + " ?= " + k[0]);
-			if (current != null && current.equals(k[0])) {
-				profile.setSummary(R.string.active);
+		final SharedPreferences p = PreferenceManager
+				.getDefaultSharedPreferences(this);
+		new AsyncTask<Void, Void, List<String[]>>() {
+			/** Current profile's key. */
+			private String current;
+
+			@Override
+			protected List<String[]> doInBackground(final Void... params) {
+				this.current = p.getString(Profile.CURRENT_PROFILE, null);
+				return Profile.getValidKeys(AndroidPlatform
+						.getInstance(NfcProfileActivity.this));
+			}
+
+			@Override
+			protected void onPostExecute(final List<String[]> result) {
+				NfcProfileActivity.this.setProfiles(result, this.current);
 			}
-			profile.setOnPreferenceClickListener(this);
-			ps.addPreference(profile);
+		}.execute((Void[]) null);
+	}
+
+	/**
+	 * Show profiles.
+	 * 
+	 * @param keys
+	 *            key/name pairs of profiles
+	 * @param current
+	 *            current profile's key, may be null
+	 */
+	private void setProfiles(final List<String[]> keys, final String current) {
+		if (!this.adapter.setProfiles(keys, current)) {
+			Log.d(TAG, "profiles unchanged");
 		}
+		((TextView) this.findViewById(android.R.id.empty))
+				.setText(R.string.no_profiles);
 	}
 
 	@Override
-	public boolean onPreferenceClick(final Preference preference) {
-		String key = preference.getKey();
-		if (key.equals("add_profile")) {
+	protected void onListItemClick(final ListView l, final View v,
+			final int position, final long id) {
+		Intent intent = new Intent(this, ProfileActivity.class);
+		intent.putExtra(ProfileActivity.EXTRA_KEY,
+				this.adapter.getKey(position));
+		this.startActivity(intent);
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(final Menu menu) {
+		this.getMenuInflater().inflate(R.menu.nfc_profile_activity, menu);
+		return true;
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.add_profile:
 			this.startActivity(new Intent(this, ProfileActivity.class));
 			return true;
-		} else if (key.startsWith(PREFIX)) {
-			Intent intent = new Intent(this, ProfileActivity.class);
-			intent.putExtra(ProfileActivity.EXTRA_KEY,
-					key.substring(PREFIX.length()));
-			this.startActivity(intent);
+		case R.id.write_tags:
+			if (this.adapter.getCount() > 0) {
+				Intent intent = new Intent(this, NfcWriterActivity.class);
+				intent.putExtra(NfcWriterActivity.EXTRA_KEYS,
+						this.adapter.getKeys());
+				this.startActivity(intent);
+			}
+			return true;
+		case R.id.settings:
+			this.startActivity(new Intent(this, SettingsActivity.class));
 			return true;
+		default:
+			return super.onOptionsItemSelected(item);
 		}
-		return false;
-	}
-
-	@Override
-	protected void onStop() {
-		super.onStop();
-		PreferenceManager
-				.getDefaultSharedPreferences(this)
-				.edit()
-				.putLong(NfcProfileBackupAgent.PREF_LAST_CHANGE,
-						System.currentTimeMillis()).apply();
-		BackupManager.dataChanged(this.getApplicationInfo().packageName);
 	}
-}
\ No newline at end of file
+}
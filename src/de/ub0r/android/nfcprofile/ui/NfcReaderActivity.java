@@ -18,84 +18,72 @@
  */
 package de.ub0r.android.nfcprofile.ui;
 
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 import android.app.Activity;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
-import android.os.Vibrator;
-import android.preference.PreferenceManager;
+import android.nfc.NdefMessage;
+import android.nfc.NdefRecord;
+import android.nfc.NfcAdapter;
+import android.os.Bundle;
+import android.os.Parcelable;
 import de.ub0r.android.lib.Log;
-import de.ub0r.android.nfcprofile.data.Profile;
+import de.ub0r.android.nfcprofile.TapService;
+import de.ub0r.android.nfcprofile.data.TagKey;
+import de.ub0r.android.nfcprofile.data.TagProfile;
 
 /**
- * Reading NFC tags.
+ * Reading NFC tags. Hands the tag's key and settings, if any, to
+ * {@link TapService} and finishes without showing anything.
  * 
  * @author flx
  */
 public final class NfcReaderActivity extends Activity {
 	/** Tag for Logging. */
 	private static final String TAG = "reader";
-
-	/** Vibrate pattern: switch profile on. */
-	private static final long[] VIBRATE_ON = new long[] { 0L, 100L };
-	/** Vibrate pattern: switch profile off. */
-	private static final long[] VIBRATE_OFF = new long[] { 0L, 100L, 100L, 100L };
+	/** Nanoseconds per microsecond. */
+	private static final long NANOS = 1000L;
+	/** {@link TagProfile}'s record type. */
+	static final byte[] TYPE = TagProfile.RECORD_TYPE.getBytes(Charset
+			.forName("US-ASCII"));
 
 	@Override
-	protected void onResume() {
-		super.onResume();
+	public void onCreate(final Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		long tapStart = System.nanoTime();
 		Log.d(TAG, "intent: " + this.getIntent());
 		Uri u = this.getIntent().getData();
-		if (u != null) {
-			String key = u.getHost();
-			if (Profile.isValidKey(this, key)) {
-				this.invokeProfile(u.getHost());
-			} else {
-				Intent intent = new Intent(this, ProfileActivity.class);
-				intent.putExtra(ProfileActivity.EXTRA_KEY, key);
-				intent.setAction(Intent.ACTION_INSERT);
-				this.startActivity(intent);
-			}
-
+		String key = TagKey.fromUri(u == null ? null : u.toString());
+		if (key != null) {
+			TapService.tap(this, key, findPayload(this.getIntent()
+					.getParcelableArrayExtra(NfcAdapter.EXTRA_NDEF_MESSAGES)),
+					tapStart);
 		}
 		this.finish();
+		Log.d(TAG, "decoded key in " + (System.nanoTime() - tapStart) / NANOS
+				+ "us");
 	}
 
 	/**
-	 * Invoke a profile or reset profile.
+	 * Find payload of a {@link TagProfile}'s record.
 	 * 
-	 * @param key
-	 *            profile key
+	 * @param msgs
+	 *            {@link NdefMessage}s read from tag, may be null
+	 * @return payload, null if there is none
 	 */
-	private void invokeProfile(final String key) {
-		Log.i(TAG, "invokeProfile(" + key + ")");
-		SharedPreferences p = PreferenceManager
-				.getDefaultSharedPreferences(this);
-		Profile prof = new Profile(this.getSharedPreferences(key, MODE_PRIVATE));
-
-		if (p.getString(Profile.CURRENT_PROFILE, null) == null
-				|| !p.getBoolean("reset_on_second_touch", true)) {
-			// set new profile to key
-			Log.i(TAG, "switch profile: " + key);
-			prof.set(this);
-
-			p.edit().putString(Profile.CURRENT_PROFILE, key).apply();
-			if (p.getBoolean("vibrate", true)) {
-				Vibrator vibrator = (Vibrator) this
-						.getSystemService(VIBRATOR_SERVICE);
-				vibrator.vibrate(VIBRATE_ON, -1);
-			}
-		} else {
-			// reset to previous settings
-			Log.i(TAG, "reset to previous settings");
-			prof.reset(this);
-			p.edit().remove(Profile.CURRENT_PROFILE).apply();
-
-			if (p.getBoolean("vibrate", true)) {
-				Vibrator vibrator = (Vibrator) this
-						.getSystemService(VIBRATOR_SERVICE);
-				vibrator.vibrate(VIBRATE_OFF, -1);
+	private static byte[] findPayload(final Parcelable[] msgs) {
+		if (msgs == null) {
+			return null;
+		}
+		for (Parcelable m : msgs) {
+			for (NdefRecord r : ((NdefMessage) m).getRecords()) {
+				if (r.getTnf() == NdefRecord.TNF_EXTERNAL_TYPE
+						&& Arrays.equals(r.getType(), TYPE)) {
+					return r.getPayload();
+				}
 			}
 		}
+		return null;
 	}
 }
@@ -20,6 +20,11 @@ package de.ub0r.android.nfcprofile.ui;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
 import android.app.PendingIntent;
@@ -28,24 +33,39 @@ import android.content.ActivityNotFoundException;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.IntentFilter.MalformedMimeTypeException;
+import android.content.SharedPreferences;
 import android.nfc.FormatException;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
 import android.nfc.tech.Ndef;
-import android.os.AsyncTask;
+import android.nfc.tech.NdefFormatable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.TextView;
 import android.widget.Toast;
 import de.ub0r.android.lib.Log;
 import de.ub0r.android.lib.Utils;
+import de.ub0r.android.nfcprofile.NfcProfileBackupAgent;
 import de.ub0r.android.nfcprofile.R;
+import de.ub0r.android.nfcprofile.data.AndroidPlatform;
+import de.ub0r.android.nfcprofile.data.NamedThreadFactory;
+import de.ub0r.android.nfcprofile.data.Platform;
+import de.ub0r.android.nfcprofile.data.ProfilePlan;
+import de.ub0r.android.nfcprofile.data.ProfileRegistry;
+import de.ub0r.android.nfcprofile.data.TagKey;
+import de.ub0r.android.nfcprofile.data.TagProfile;
 
 /**
- * Writing NFC tags.
+ * Writing NFC tags. In batch mode, every tag presented is written with the
+ * next profile's key from a queue until the user leaves.
  * 
  * @author flx
  */
@@ -53,11 +73,46 @@ public final class NfcWriterActivity extends Activity implements
 		OnClickListener {
 	/** Tag for Logging. */
 	private static final String TAG = "writer";
-	/** Prefix for NFC tag's uri. */
-	static final String URI_PREFIX = "nfcprofile://";
 	/** Skip http://www. prefix in Uri. */
 	private static final byte[] URI_SKIP_WWW = new byte[] { 0x00 };
 
+	/** Extra: keys of profiles written in batch mode. */
+	static final String EXTRA_KEYS = "keys";
+	/** Extra/state: batch mode. */
+	private static final String EXTRA_BATCH = "batch";
+	/** State: index of next key. */
+	private static final String EXTRA_NEXT = "next";
+
+	/** Preference name: read back tags after writing. */
+	private static final String PREF_VERIFY = "verify_tags";
+	/** Preference name: write keys in compact format. */
+	private static final String PREF_COMPACT = "compact_tags";
+	/** Preference name: write Android Application Record. */
+	private static final String PREF_AAR = "write_aar";
+	/** Preference name: write profile's settings. */
+	private static final String PREF_EMBED = "embed_profile";
+
+	/** Result: tag was not written. */
+	private static final int RESULT_FAILED = 0;
+	/** Result: tag held the message already. */
+	private static final int RESULT_SKIPPED = 1;
+	/** Result: tag was written. */
+	private static final int RESULT_WRITTEN = 2;
+	/** Result: tag was written and read back. */
+	private static final int RESULT_VERIFIED = 3;
+	/** Result: tag was formatted, formatted tags can not be read back. */
+	private static final int RESULT_UNVERIFIED = 4;
+
+	/** Milliseconds per minute. */
+	private static final double MINUTE = 60000d;
+
+	/**
+	 * Thread writing tags. Tags are written one at a time while the UI thread
+	 * is free to show feedback and accept the next tag.
+	 */
+	private static final ExecutorService WRITER = Executors
+			.newSingleThreadExecutor(new NamedThreadFactory("writer"));
+
 	/** Array of {@link IntentFilter}. */
 	private IntentFilter[] intentFilters;
 	/** {@link PendingIntent} to launch this activity. */
@@ -67,8 +122,41 @@ public final class NfcWriterActivity extends Activity implements
 	/** Active {@link NfcAdapter}. */
 	private NfcAdapter nfcAdapter;
 
-	/** Profile's key. */
-	private String key;
+	/** Profiles' keys, written in turn. */
+	private String[] keys;
+	/** Profiles' names, null until names and options are loaded. */
+	private String[] names = null;
+	/** Index of key written to next tag. */
+	private int next = 0;
+	/** Keep writing tags until the user leaves. */
+	private boolean batch = false;
+	/** Read back tags after writing. */
+	private boolean verify = false;
+	/** Write keys in compact format. */
+	private boolean compact = false;
+	/** Write Android Application Record. */
+	private boolean aar = true;
+	/** Write profile's settings. */
+	private boolean embed = false;
+	/** Size of last message in bytes. */
+	private int messageSize = 0;
+
+	/** {@link ProgressDialog} shown while writing a single tag. */
+	private ProgressDialog progress = null;
+	/** Number of tags written. */
+	private int written = 0;
+	/** Number of tags read back after writing. */
+	private int verified = 0;
+	/** Number of tags formatted, which could not be read back. */
+	private int unverified = 0;
+	/** Number of tags holding the message already. */
+	private int skipped = 0;
+	/** Number of tags failed. */
+	private int failed = 0;
+	/** Number of tags queued but not written yet. */
+	private int pending = 0;
+	/** Time the first tag was presented. */
+	private long started = 0L;
 
 	@Override
 	protected void onCreate(final Bundle savedInstanceState) {
@@ -80,10 +168,17 @@ public final class NfcWriterActivity extends Activity implements
 		}
 
 		if (savedInstanceState == null) {
-			this.key = this.getIntent().getStringExtra(
-					ProfileActivity.EXTRA_KEY);
+			Intent i = this.getIntent();
+			this.keys = i.getStringArrayExtra(EXTRA_KEYS);
+			if (this.keys == null) {
+				this.keys = new String[] { i
+						.getStringExtra(ProfileActivity.EXTRA_KEY) };
+			}
+			this.batch = i.getBooleanExtra(EXTRA_BATCH, this.keys.length > 1);
 		} else {
-			this.key = savedInstanceState.getString(ProfileActivity.EXTRA_KEY);
+			this.keys = savedInstanceState.getStringArray(EXTRA_KEYS);
+			this.next = savedInstanceState.getInt(EXTRA_NEXT);
+			this.batch = savedInstanceState.getBoolean(EXTRA_BATCH);
 		}
 		this.pendingIntent = PendingIntent.getActivity(this, 0, new Intent(
 				this, this.getClass())
@@ -96,15 +191,58 @@ public final class NfcWriterActivity extends Activity implements
 			throw new RuntimeException(
 					"could not add data type */* to IntentFilter", e);
 		}
-		this.intentFilters = new IntentFilter[] { filter };
-		this.techLists = new String[][] { new String[] { Ndef.class.getName() } };
+		// blank tags are not NDEF_DISCOVERED but TECH_DISCOVERED
+		this.intentFilters = new IntentFilter[] { filter,
+				new IntentFilter(NfcAdapter.ACTION_TECH_DISCOVERED) };
+		this.techLists = new String[][] {
+				new String[] { Ndef.class.getName() },
+				new String[] { NdefFormatable.class.getName() } };
 		this.nfcAdapter = NfcAdapter.getDefaultAdapter(this);
+		this.updateStats();
+		this.load();
+	}
+
+	/**
+	 * Load options and profiles' names off the UI thread. Tags are written on
+	 * the same thread, after loading.
+	 */
+	private void load() {
+		final String[] k = this.keys;
+		WRITER.execute(new Runnable() {
+			@Override
+			public void run() {
+				final SharedPreferences p = PreferenceManager
+						.getDefaultSharedPreferences(NfcWriterActivity.this);
+				p.getAll();
+				ProfileRegistry r = ProfileRegistry.getInstance(AndroidPlatform
+						.getInstance(NfcWriterActivity.this));
+				final String[] n = new String[k.length];
+				for (int i = 0; i < k.length; i++) {
+					n[i] = r.getName(k[i]);
+				}
+				NfcWriterActivity.this.runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						NfcWriterActivity a = NfcWriterActivity.this;
+						// in memory by now, no disk read
+						a.verify = p.getBoolean(PREF_VERIFY, false);
+						a.compact = p.getBoolean(PREF_COMPACT, false);
+						a.aar = p.getBoolean(PREF_AAR, true);
+						a.embed = p.getBoolean(PREF_EMBED, false);
+						a.names = n;
+						a.updateStats();
+					}
+				});
+			}
+		});
 	}
 
 	@Override
 	protected void onSaveInstanceState(final Bundle outState) {
 		super.onSaveInstanceState(outState);
-		outState.putString(ProfileActivity.EXTRA_KEY, this.key);
+		outState.putStringArray(EXTRA_KEYS, this.keys);
+		outState.putInt(EXTRA_NEXT, this.next);
+		outState.putBoolean(EXTRA_BATCH, this.batch);
 	}
 
 	@Override
@@ -136,49 +274,212 @@ public final class NfcWriterActivity extends Activity implements
 	@Override
 	public void onNewIntent(final Intent intent) {
 		Log.d(TAG, "onNewIntent(" + intent + ")");
-		AsyncTask<Intent, Void, Boolean> task = new AsyncTask<Intent, Void, Boolean>() {
-			private ProgressDialog d = null;
-
-			@Override
-			protected void onPreExecute() {
-				ProgressDialog pd = new ProgressDialog(NfcWriterActivity.this);
-				this.d = pd;
-				pd.setIndeterminate(true);
-				pd.setMessage(NfcWriterActivity.this
-						.getString(R.string.writing));
-				pd.show();
-			};
-
+		final Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
+		if (tag == null) {
+			return;
+		}
+		if (this.names == null) {
+			// options are not known yet
+			Log.d(TAG, "ignore tag, still loading");
+			return;
+		}
+		if (!this.batch) {
+			if (this.progress != null) {
+				Log.d(TAG, "ignore tag, still writing");
+				return;
+			}
+			ProgressDialog pd = new ProgressDialog(this);
+			this.progress = pd;
+			pd.setIndeterminate(true);
+			pd.setMessage(this.getString(R.string.writing));
+			pd.show();
+		}
+		if (this.started == 0L) {
+			this.started = SystemClock.elapsedRealtime();
+		}
+		final String k = this.keys[this.next];
+		final boolean c = this.compact;
+		final boolean a = this.aar;
+		final boolean em = this.embed;
+		final boolean v = this.verify;
+		this.next = (this.next + 1) % this.keys.length;
+		++this.pending;
+		this.updateStats();
+		WRITER.execute(new Runnable() {
 			@Override
-			protected Boolean doInBackground(final Intent... params) {
-				boolean success = false;
+			public void run() {
+				int result = RESULT_FAILED;
+				int size = 0;
 				try {
-					success = NfcWriterActivity.this.writeNfcTag(params[0],
-							URI_PREFIX + NfcWriterActivity.this.key);
+					NdefMessage message = NfcWriterActivity.this.buildMessage(
+							k, c, a, em);
+					size = message.toByteArray().length;
+					result = NfcWriterActivity.this.writeNfcTag(tag, message,
+							v);
 				} catch (IOException e) {
 					Log.e(TAG, "error writing tag", e);
 				} catch (FormatException e) {
 					Log.e(TAG, "error writing tag", e);
+				} catch (RuntimeException e) {
+					// e.g. profile without name or a plan failing to compile
+					Log.e(TAG, "error building message", e);
+				} finally {
+					// always report back, the UI waits for pending tags
+					final int r = result;
+					final int n = size;
+					NfcWriterActivity.this.runOnUiThread(new Runnable() {
+						@Override
+						public void run() {
+							NfcWriterActivity.this.onTagWritten(r, n);
+						}
+					});
 				}
-				return success;
 			}
+		});
+	}
 
-			@Override
-			protected void onPostExecute(final Boolean success) {
-				super.onPostExecute(success);
-				this.d.dismiss();
-				if (success) {
-					Toast.makeText(NfcWriterActivity.this,
-							R.string.tag_written, Toast.LENGTH_LONG).show();
-				} else {
-					Toast.makeText(NfcWriterActivity.this,
-							R.string.error_writing_tag, Toast.LENGTH_LONG)
-							.show();
-				}
-				NfcWriterActivity.this.finish();
-			}
-		};
-		task.execute(intent);
+	/**
+	 * Show feedback for a written tag.
+	 * 
+	 * @param result
+	 *            RESULT_*
+	 * @param size
+	 *            size of message in bytes, 0 if it was not built
+	 */
+	private void onTagWritten(final int result, final int size) {
+		--this.pending;
+		if (size > 0) {
+			this.messageSize = size;
+		}
+		int msg;
+		switch (result) {
+		case RESULT_SKIPPED:
+			++this.skipped;
+			msg = R.string.tag_unchanged;
+			break;
+		case RESULT_VERIFIED:
+			++this.verified;
+			++this.written;
+			msg = R.string.tag_written;
+			break;
+		case RESULT_UNVERIFIED:
+			++this.unverified;
+			++this.written;
+			msg = R.string.tag_written;
+			break;
+		case RESULT_WRITTEN:
+			++this.written;
+			msg = R.string.tag_written;
+			break;
+		default:
+			++this.failed;
+			msg = R.string.error_writing_tag;
+			break;
+		}
+		int duration;
+		if (this.batch) {
+			duration = Toast.LENGTH_SHORT;
+		} else {
+			duration = Toast.LENGTH_LONG;
+		}
+		Toast.makeText(this, msg, duration).show();
+		if (this.progress != null) {
+			this.progress.dismiss();
+			this.progress = null;
+		}
+		if (this.batch) {
+			this.updateStats();
+		} else if (this.pending == 0) {
+			this.finish();
+		}
+	}
+
+	/**
+	 * Show next profile, throughput and errors in batch mode.
+	 */
+	private void updateStats() {
+		TextView tv = (TextView) this.findViewById(R.id.batch_stats);
+		if (!this.batch) {
+			tv.setVisibility(View.GONE);
+			return;
+		}
+		tv.setVisibility(View.VISIBLE);
+		double rate = 0d;
+		long elapsed = SystemClock.elapsedRealtime() - this.started;
+		if (this.started != 0L && elapsed > 0L) {
+			rate = this.written * MINUTE / elapsed;
+		}
+		String name = "";
+		if (this.names != null) {
+			name = this.names[this.next];
+		}
+		tv.setText(String.format(Locale.getDefault(),
+				this.getString(R.string.batch_stats), name, this.written,
+				this.skipped, this.verified, this.unverified, this.failed,
+				this.pending, rate, this.messageSize));
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(final Menu menu) {
+		this.getMenuInflater().inflate(R.menu.nfc_writer_activity, menu);
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(final Menu menu) {
+		menu.findItem(R.id.batch_mode).setChecked(this.batch);
+		menu.findItem(R.id.verify_tags).setChecked(this.verify);
+		menu.findItem(R.id.compact_tags).setChecked(this.compact);
+		menu.findItem(R.id.write_aar).setChecked(this.aar);
+		menu.findItem(R.id.embed_profile).setChecked(this.embed);
+		return super.onPrepareOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.batch_mode:
+			this.batch = !item.isChecked();
+			item.setChecked(this.batch);
+			this.updateStats();
+			return true;
+		case R.id.verify_tags:
+			this.verify = !item.isChecked();
+			item.setChecked(this.verify);
+			this.putOption(PREF_VERIFY, this.verify);
+			return true;
+		case R.id.compact_tags:
+			this.compact = !item.isChecked();
+			item.setChecked(this.compact);
+			this.putOption(PREF_COMPACT, this.compact);
+			return true;
+		case R.id.write_aar:
+			this.aar = !item.isChecked();
+			item.setChecked(this.aar);
+			this.putOption(PREF_AAR, this.aar);
+			return true;
+		case R.id.embed_profile:
+			this.embed = !item.isChecked();
+			item.setChecked(this.embed);
+			this.putOption(PREF_EMBED, this.embed);
+			return true;
+		default:
+			return super.onOptionsItemSelected(item);
+		}
+	}
+
+	/**
+	 * Keep an option for later.
+	 * 
+	 * @param pref
+	 *            preference's name
+	 * @param value
+	 *            option's value
+	 */
+	private void putOption(final String pref, final boolean value) {
+		PreferenceManager.getDefaultSharedPreferences(this).edit()
+				.putBoolean(pref, value).apply();
+		NfcProfileBackupAgent.requestBackup(this);
 	}
 
 	@Override
@@ -197,44 +498,124 @@ public final class NfcWriterActivity extends Activity implements
 	}
 
 	/**
-	 * Write NFC tag.
+	 * Build message written to tags. Runs on the writer thread.
 	 * 
-	 * @param intent
-	 *            {@link Intent}
-	 * @param uri
-	 *            URI which should be written to tag
-	 * @return true if NFC tag was written
+	 * @param key
+	 *            profile's key
+	 * @param compactUri
+	 *            write key in compact format
+	 * @param withAar
+	 *            write Android Application Record
+	 * @param withProfile
+	 *            write profile's settings
+	 * @return {@link NdefMessage}
+	 */
+	private NdefMessage buildMessage(final String key,
+			final boolean compactUri, final boolean withAar,
+			final boolean withProfile) {
+		String uri = TagKey.toUri(key, compactUri);
+		final byte[] uriBytes = Utils.concatByteArrays(new byte[][] {
+				URI_SKIP_WWW, uri.getBytes(Charset.forName("US-ASCII")) });
+		NdefRecord uriRecord = new NdefRecord(NdefRecord.TNF_WELL_KNOWN,
+				NdefRecord.RTD_URI, new byte[0], uriBytes);
+		ArrayList<NdefRecord> records = new ArrayList<NdefRecord>(3);
+		records.add(uriRecord);
+		if (withProfile) {
+			Platform platform = AndroidPlatform.getInstance(this);
+			TagProfile tp = new TagProfile(ProfileRegistry.getInstance(
+					platform).getName(key), ProfilePlan.loadOrCompile(platform,
+					key));
+			records.add(new NdefRecord(NdefRecord.TNF_EXTERNAL_TYPE,
+					NfcReaderActivity.TYPE, new byte[0], tp.toByteArray()));
+		}
+		// AAR saves 40+ bytes, tags are handled by the intent filter
+		if (withAar) {
+			records.add(NdefRecord.createApplicationRecord(this
+					.getApplication().getPackageName()));
+		}
+		return new NdefMessage(records.toArray(new NdefRecord[records
+				.size()]));
+	}
+
+	/**
+	 * Write NFC tag. Blank tags get formatted, tags holding the message
+	 * already are left alone. A formatted tag shows no {@link Ndef} tech
+	 * until it is discovered again, so it is not read back.
+	 * 
+	 * @param tag
+	 *            {@link Tag}
+	 * @param message
+	 *            {@link NdefMessage} which should be written to tag
+	 * @param readBack
+	 *            read back tag after writing
+	 * @return RESULT_*
 	 * @throws IOException
 	 *             IOException
 	 * @throws FormatException
 	 *             FormatException
 	 */
-	private boolean writeNfcTag(final Intent intent, final String uri)
-			throws IOException, FormatException {
-		Log.d(TAG, "writeUriToTag(" + intent + "," + uri + ")");
-		String action = intent.getAction();
-		if (NfcAdapter.ACTION_TECH_DISCOVERED.equals(action)
-				|| NfcAdapter.ACTION_NDEF_DISCOVERED.equals(action)) {
-			Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
-			Ndef ndef = Ndef.get(tag);
-			final byte[] uriBytes = Utils.concatByteArrays(new byte[][] {
-					URI_SKIP_WWW, uri.getBytes(Charset.forName("US-ASCII")) });
-			NdefRecord uriRecord = new NdefRecord(NdefRecord.TNF_WELL_KNOWN,
-					NdefRecord.RTD_URI, new byte[0], uriBytes);
+	private int writeNfcTag(final Tag tag, final NdefMessage message,
+			final boolean readBack) throws IOException, FormatException {
+		Log.d(TAG, "writeNfcTag(" + tag + ")");
+		byte[] b = message.toByteArray();
+		Ndef ndef = Ndef.get(tag);
+		if (ndef != null) {
+			// read while discovering the tag, no I/O
+			NdefMessage cached = ndef.getCachedNdefMessage();
+			if (cached != null && Arrays.equals(cached.toByteArray(), b)) {
+				Log.i(TAG, "NFC tag unchanged");
+				return RESULT_SKIPPED;
+			}
 			try {
-				NdefRecord[] records = {
-						uriRecord,
-						NdefRecord.createApplicationRecord(this
-								.getApplication().getPackageName()) };
-				NdefMessage message = new NdefMessage(records);
+				long t = SystemClock.elapsedRealtime();
 				ndef.connect();
 				ndef.writeNdefMessage(message);
-				Log.i(TAG, "NFC tag written");
-				return true;
-			} catch (Exception e) {
-				Log.e(TAG, "error", e);
+				Log.i(TAG, "NFC tag written: " + b.length + "/"
+						+ ndef.getMaxSize() + " bytes, "
+						+ (SystemClock.elapsedRealtime() - t) + "ms");
+				if (!readBack) {
+					return RESULT_WRITTEN;
+				}
+				return checkWritten(ndef.getNdefMessage(), b);
+			} finally {
+				ndef.close();
 			}
 		}
-		return false;
+		NdefFormatable formatable = NdefFormatable.get(tag);
+		if (formatable != null) {
+			try {
+				formatable.connect();
+				formatable.format(message);
+				Log.i(TAG, "NFC tag formatted");
+			} finally {
+				formatable.close();
+			}
+			if (!readBack) {
+				return RESULT_WRITTEN;
+			}
+			Log.i(TAG, "unable to read back formatted tag");
+			return RESULT_UNVERIFIED;
+		}
+		Log.w(TAG, "unsupported tag: " + tag);
+		return RESULT_FAILED;
+	}
+
+	/**
+	 * Compare a message read back from a tag.
+	 * 
+	 * @param read
+	 *            {@link NdefMessage} read from tag, may be null
+	 * @param expected
+	 *            expected message
+	 * @return RESULT_VERIFIED or RESULT_FAILED
+	 */
+	private static int checkWritten(final NdefMessage read,
+			final byte[] expected) {
+		if (read != null && Arrays.equals(read.toByteArray(), expected)) {
+			Log.i(TAG, "NFC tag verified");
+			return RESULT_VERIFIED;
+		}
+		Log.e(TAG, "NFC tag differs after writing");
+		return RESULT_FAILED;
 	}
 }
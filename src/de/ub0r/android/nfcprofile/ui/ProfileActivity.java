@@ -18,8 +18,13 @@
  */
 package de.ub0r.android.nfcprofile.ui;
 
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Resources;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
@@ -29,12 +34,20 @@ import android.preference.PreferenceScreen;
 import android.view.Menu;
 import android.view.MenuItem;
 import de.ub0r.android.lib.Log;
+import de.ub0r.android.nfcprofile.NfcProfileBackupAgent;
 import de.ub0r.android.nfcprofile.R;
+import de.ub0r.android.nfcprofile.TapService;
 import de.ub0r.android.nfcprofile.data.AirplaneModeSetting;
+import de.ub0r.android.nfcprofile.data.AndroidPlatform;
+import de.ub0r.android.nfcprofile.data.Platform;
+import de.ub0r.android.nfcprofile.data.PrefsStore;
 import de.ub0r.android.nfcprofile.data.Profile;
+import de.ub0r.android.nfcprofile.data.ProfilePlan;
+import de.ub0r.android.nfcprofile.data.ProfileRegistry;
 import de.ub0r.android.nfcprofile.data.RingModeSetting;
 import de.ub0r.android.nfcprofile.data.ScreenBrightnessSetting;
 import de.ub0r.android.nfcprofile.data.ScreenTimeoutSetting;
+import de.ub0r.android.nfcprofile.data.TagKey;
 import de.ub0r.android.nfcprofile.data.VibratorSetting;
 
 /**
@@ -43,31 +56,75 @@ import de.ub0r.android.nfcprofile.data.VibratorSetting;
  * @author flx
  */
 public final class ProfileActivity extends PreferenceActivity implements
-		OnPreferenceChangeListener {
+		OnPreferenceChangeListener, OnSharedPreferenceChangeListener {
 	/** Tag for Logging. */
 	private static final String TAG = "profile";
 	/** Extra: key. */
 	public static final String EXTRA_KEY = "key";
 	/** Profile's key. */
 	private String key;
+	/** True, if profile's preferences are shown. */
+	private boolean loaded = false;
 
 	@Override
 	public void onCreate(final Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		final boolean add;
 		if (savedInstanceState == null) {
 			this.key = this.getIntent().getStringExtra(EXTRA_KEY);
+			add = this.key != null;
 			if (this.key == null) {
-				this.key = Profile.genKey(this);
-			} else {
-				Profile.addKey(this, this.key);
+				this.key = Profile.genKey();
 			}
 		} else {
 			this.key = savedInstanceState.getString(EXTRA_KEY);
+			add = false;
 		}
 		Log.d(TAG, "key: " + this.key);
 
+		// show placeholder while loading
+		PreferenceManager pm = this.getPreferenceManager();
+		PreferenceScreen ps = pm.createPreferenceScreen(this);
+		Preference loading = new Preference(this);
+		loading.setTitle(R.string.loading);
+		loading.setSelectable(false);
+		ps.addPreference(loading);
+		this.setPreferenceScreen(ps);
+
+		new AsyncTask<Void, Void, Void>() {
+			@Override
+			protected Void doInBackground(final Void... params) {
+				Context ctx = ProfileActivity.this;
+				String k = ProfileActivity.this.key;
+				Platform platform = AndroidPlatform.getInstance(ctx);
+				if (add) {
+					Profile.addKey(platform, k);
+				} else {
+					// setName() must not load it on the main thread
+					ProfileRegistry.getInstance(platform);
+				}
+				// load preferences into memory
+				ctx.getSharedPreferences(k, MODE_PRIVATE).getAll();
+				PreferenceManager.getDefaultSharedPreferences(ctx).getAll();
+				return null;
+			}
+
+			@Override
+			protected void onPostExecute(final Void result) {
+				if (!ProfileActivity.this.isFinishing()) {
+					ProfileActivity.this.bindPreferences();
+				}
+			}
+		}.execute((Void[]) null);
+	}
+
+	/**
+	 * Show profile's preferences. Call after they were loaded into memory.
+	 */
+	private void bindPreferences() {
 		PreferenceManager pm = this.getPreferenceManager();
 		pm.setSharedPreferencesName(this.key);
+		this.setPreferenceScreen(null);
 		this.addPreferencesFromResource(R.xml.profile_activity);
 		this.setAndInvokeOnPreferenceChangeListener(pm,
 				this.findPreference("name"), this);
@@ -88,6 +145,33 @@ public final class ProfileActivity extends PreferenceActivity implements
 					.findPreference("container");
 			ps.removePreference(this.findPreference("unknown_profile"));
 		}
+		pm.getSharedPreferences().registerOnSharedPreferenceChangeListener(
+				this);
+		this.loaded = true;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			// menu was prepared before the current profile was known
+			this.invalidateOptionsMenu();
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (this.loaded) {
+			this.getPreferenceManager().getSharedPreferences()
+					.unregisterOnSharedPreferenceChangeListener(this);
+		}
+	}
+
+	@Override
+	public void onSharedPreferenceChanged(final SharedPreferences p,
+			final String k) {
+		NfcProfileBackupAgent.requestBackup(this);
+		if (k != null && !k.equals("name") && p.contains("name")) {
+			// compile profile for the tag-tap path, taps see it right away
+			ProfilePlan.compile(new PrefsStore(p)).saveInBackground(
+					AndroidPlatform.getInstance(this), this.key);
+		}
 	}
 
 	/**
@@ -140,6 +224,16 @@ public final class ProfileActivity extends PreferenceActivity implements
 		String k = preference.getKey();
 		if (k.equals("name")) {
 			preference.setSummary((CharSequence) newValue);
+			final Platform platform = AndroidPlatform.getInstance(this);
+			final String profileKey = this.key;
+			final String name = (String) newValue;
+			// writes the registry, after pending plan saves
+			ProfilePlan.enqueue(new Runnable() {
+				@Override
+				public void run() {
+					Profile.setName(platform, profileKey, name);
+				}
+			});
 		} else if (k.equals(AirplaneModeSetting.class.getSimpleName())
 				|| k.equals(RingModeSetting.class.getSimpleName())) {
 			preference.setSummary(this.translateStringList(
@@ -193,8 +287,12 @@ public final class ProfileActivity extends PreferenceActivity implements
 
 	@Override
 	public boolean onPrepareOptionsMenu(final Menu menu) {
-		String current = PreferenceManager.getDefaultSharedPreferences(this)
-				.getString(Profile.CURRENT_PROFILE, null);
+		String current = null;
+		if (this.loaded) {
+			// in memory by now, no disk read
+			current = PreferenceManager.getDefaultSharedPreferences(this)
+					.getString(Profile.CURRENT_PROFILE, null);
+		}
 		if (current != null && current.equals(this.key)) {
 			menu.findItem(R.id.activate_profile).setVisible(false);
 			menu.findItem(R.id.deactivate_profile).setVisible(true);
@@ -215,8 +313,21 @@ public final class ProfileActivity extends PreferenceActivity implements
 			this.startActivity(intent);
 			return true;
 		case R.id.delete_profile:
-			this.getPreferenceManager().getSharedPreferences().edit().clear()
-					.apply();
+			if (this.loaded) {
+				this.getPreferenceManager().getSharedPreferences().edit()
+						.clear().apply();
+			}
+			final Context ctx = this.getApplicationContext();
+			final Platform platform = AndroidPlatform.getInstance(this);
+			final String k = this.key;
+			// after pending saves, which would bring back its plan
+			ProfilePlan.enqueue(new Runnable() {
+				@Override
+				public void run() {
+					Profile.removeKey(platform, k);
+					NfcProfileBackupAgent.requestBackup(ctx);
+				}
+			});
 			this.finish();
 			return true;
 		case R.id.write_tag:
@@ -227,22 +338,16 @@ public final class ProfileActivity extends PreferenceActivity implements
 		case R.id.share_profile:
 			intent = new Intent(Intent.ACTION_SEND);
 			intent.setType("text/plain");
-			intent.putExtra(Intent.EXTRA_TEXT, NfcWriterActivity.URI_PREFIX
+			intent.putExtra(Intent.EXTRA_TEXT, TagKey.LEGACY_PREFIX
 					+ this.key);
 			this.startActivity(Intent.createChooser(intent,
 					this.getString(R.string.share)));
 			return true;
 		case R.id.activate_profile:
-			new Profile(this.getPreferenceManager().getSharedPreferences())
-					.set(this);
-			PreferenceManager.getDefaultSharedPreferences(this).edit()
-					.putString(Profile.CURRENT_PROFILE, this.key).apply();
+			TapService.apply(this, this.key, false);
 			return true;
 		case R.id.deactivate_profile:
-			new Profile(this.getPreferenceManager().getSharedPreferences())
-					.reset(this);
-			PreferenceManager.getDefaultSharedPreferences(this).edit()
-					.remove(Profile.CURRENT_PROFILE).apply();
+			TapService.apply(this, this.key, true);
 			return true;
 		default:
 			return super.onOptionsItemSelected(item);
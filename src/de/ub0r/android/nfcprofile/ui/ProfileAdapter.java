@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+import de.ub0r.android.nfcprofile.R;
+
+/**
+ * {@link BaseAdapter} showing key/name pairs of profiles. Rows are recycled
+ * and bound only while visible.
+ * 
+ * @author flx
+ */
+final class ProfileAdapter extends BaseAdapter {
+	/**
+	 * Views of a single row.
+	 */
+	private static final class ViewHolder {
+		/** Profile's name. */
+		private TextView name;
+		/** Profile's state. */
+		private TextView state;
+	}
+
+	/** {@link LayoutInflater}. */
+	private final LayoutInflater inflater;
+	/** Key/name pairs of profiles. */
+	private List<String[]> profiles = new ArrayList<String[]>(0);
+	/** Current profile's key. */
+	private String current = null;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param context
+	 *            {@link Context}
+	 */
+	ProfileAdapter(final Context context) {
+		this.inflater = LayoutInflater.from(context);
+	}
+
+	/**
+	 * Show profiles. Visible rows are rebound only if anything changed.
+	 * 
+	 * @param keys
+	 *            key/name pairs of profiles
+	 * @param currentKey
+	 *            current profile's key, may be null
+	 * @return true, if anything changed
+	 */
+	boolean setProfiles(final List<String[]> keys, final String currentKey) {
+		if (equals(this.current, currentKey) && this.isShowing(keys)) {
+			return false;
+		}
+		this.profiles = keys;
+		this.current = currentKey;
+		this.notifyDataSetChanged();
+		return true;
+	}
+
+	/**
+	 * @param keys
+	 *            key/name pairs of profiles
+	 * @return true, if keys are shown already
+	 */
+	private boolean isShowing(final List<String[]> keys) {
+		int l = keys.size();
+		if (l != this.profiles.size()) {
+			return false;
+		}
+		for (int i = 0; i < l; i++) {
+			String[] a = keys.get(i);
+			String[] b = this.profiles.get(i);
+			if (!a[0].equals(b[0]) || !equals(a[1], b[1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param a
+	 *            {@link String}, may be null
+	 * @param b
+	 *            {@link String}, may be null
+	 * @return true, if both are null or equal
+	 */
+	private static boolean equals(final String a, final String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public int getCount() {
+		return this.profiles.size();
+	}
+
+	@Override
+	public String[] getItem(final int position) {
+		return this.profiles.get(position);
+	}
+
+	/**
+	 * @param position
+	 *            position
+	 * @return profile's key
+	 */
+	String getKey(final int position) {
+		return this.profiles.get(position)[0];
+	}
+
+	/**
+	 * @return keys of all profiles
+	 */
+	String[] getKeys() {
+		int l = this.profiles.size();
+		String[] ret = new String[l];
+		for (int i = 0; i < l; i++) {
+			ret[i] = this.profiles.get(i)[0];
+		}
+		return ret;
+	}
+
+	@Override
+	public long getItemId(final int position) {
+		return this.getKey(position).hashCode();
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(final int position, final View convertView,
+			final ViewGroup parent) {
+		View v = convertView;
+		ViewHolder h;
+		if (v == null) {
+			v = this.inflater.inflate(android.R.layout.simple_list_item_2,
+					parent, false);
+			h = new ViewHolder();
+			h.name = (TextView) v.findViewById(android.R.id.text1);
+			h.state = (TextView) v.findViewById(android.R.id.text2);
+			v.setTag(h);
+		} else {
+			h = (ViewHolder) v.getTag();
+		}
+		String[] p = this.profiles.get(position);
+		h.name.setText(p[1]);
+		if (p[0].equals(this.current)) {
+			h.state.setText(R.string.active);
+			h.state.setVisibility(View.VISIBLE);
+		} else {
+			h.state.setVisibility(View.GONE);
+		}
+		return v;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Felix Bechstein
+ * 
+ * This file is part of NfcProfile.
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.ub0r.android.nfcprofile.ui;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.Preference;
+import android.preference.PreferenceActivity;
+import android.preference.PreferenceManager;
+import android.preference.PreferenceScreen;
+import de.ub0r.android.nfcprofile.NfcProfileBackupAgent;
+import de.ub0r.android.nfcprofile.R;
+
+/**
+ * Show app wide preferences and about.
+ * 
+ * @author flx
+ */
+public final class SettingsActivity extends PreferenceActivity implements
+		OnSharedPreferenceChangeListener {
+	@Override
+	public void onCreate(final Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		this.setTitle(R.string.settings);
+
+		// show placeholder while loading
+		PreferenceManager pm = this.getPreferenceManager();
+		PreferenceScreen ps = pm.createPreferenceScreen(this);
+		Preference loading = new Preference(this);
+		loading.setTitle(R.string.loading);
+		loading.setSelectable(false);
+		ps.addPreference(loading);
+		this.setPreferenceScreen(ps);
+
+		new AsyncTask<Void, Void, Void>() {
+			@Override
+			protected Void doInBackground(final Void... params) {
+				// load preferences into memory
+				PreferenceManager.getDefaultSharedPreferences(
+						SettingsActivity.this).getAll();
+				return null;
+			}
+
+			@Override
+			protected void onPostExecute(final Void result) {
+				if (!SettingsActivity.this.isFinishing()) {
+					SettingsActivity.this.setPreferenceScreen(null);
+					SettingsActivity.this
+							.addPreferencesFromResource(R.xml.settings_activity);
+				}
+			}
+		}.execute((Void[]) null);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		PreferenceManager.getDefaultSharedPreferences(this)
+				.registerOnSharedPreferenceChangeListener(this);
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		PreferenceManager.getDefaultSharedPreferences(this)
+				.unregisterOnSharedPreferenceChangeListener(this);
+	}
+
+	@Override
+	public void onSharedPreferenceChanged(final SharedPreferences p,
+			final String k) {
+		NfcProfileBackupAgent.requestBackup(this);
+	}
+}